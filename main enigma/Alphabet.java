@@ -1,7 +1,12 @@
 package enigma;
 
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters may also be handled
+ *  as Unicode code points, which allows alphabets (such as
+ *  CodePointAlphabet) that contain supplementary characters; the char
+ *  methods apply only to alphabets for which isBmp() is true.
  *  @author P. N. Hilfinger
  */
 abstract class Alphabet {
@@ -20,4 +25,30 @@ abstract class Alphabet {
      *  the alphabet. This is the inverse of toChar(). */
     abstract int toInt(char ch);
 
+    /** Returns true iff every character in the alphabet is in the Basic
+     *  Multilingual Plane, so that each is a single char. */
+    boolean isBmp() {
+        return true;
+    }
+
+    /** Returns true if the code point CP is in this alphabet. */
+    boolean containsCodePoint(int cp) {
+        return Character.isBmpCodePoint(cp) && contains((char) cp);
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return toChar(index);
+    }
+
+    /** Returns the index of the code point CP, which must be in the
+     *  alphabet.  This is the inverse of toCodePoint(). */
+    int indexOf(int cp) {
+        if (!Character.isBmpCodePoint(cp)) {
+            throw inputError("character out of range");
+        }
+        return toInt((char) cp);
+    }
+
 }
@@ -0,0 +1,209 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** Applies one machine configuration to many input files at once.  Each
+ *  worker thread gets its own copy of the configured Machine, and each
+ *  file is processed exactly as Main processes a single input, so the
+ *  .out files are the same as running Main once per file.  An error in
+ *  one file is reported and does not stop the others.
+ *  @author Jacqueline Angelina
+ */
+class Batch {
+
+    /** A batch that uses MAIN to process each of INPUTS with a copy of
+     *  TEMPLATE, writing results into OUTPUTDIR (or beside each input if
+     *  OUTPUTDIR is null) using THREADS worker threads. */
+    Batch(Main main, Machine template, List<File> inputs, File outputDir,
+          int threads) {
+        if (threads < 1) {
+            throw error("need at least one worker thread");
+        }
+        if (outputDir != null && !outputDir.isDirectory()
+            && !outputDir.mkdirs()) {
+            throw error("could not create %s", outputDir);
+        }
+        _main = main;
+        _template = template;
+        _inputs = new ArrayList<>(inputs);
+        _outputDir = outputDir;
+        _threads = threads;
+    }
+
+    /** Return the input files named by SOURCE: the .inp files in it, in
+     *  name order, if it is a directory, and otherwise the files listed
+     *  one per line in it.  Blank lines and lines starting with '#' in a
+     *  manifest are ignored, and relative names are taken relative to the
+     *  manifest's directory. */
+    static List<File> inputs(File source) {
+        ArrayList<File> result = new ArrayList<>();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles((dir, name) ->
+                                            name.endsWith(INPUT_SUFFIX));
+            if (files == null) {
+                throw error("could not read directory %s", source);
+            }
+            Arrays.sort(files);
+            result.addAll(Arrays.asList(files));
+            return result;
+        }
+        try {
+            for (String line : Files.readAllLines(source.toPath())) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                File file = new File(line);
+                if (!file.isAbsolute()) {
+                    file = new File(source.getAbsoluteFile().getParentFile(),
+                                    line);
+                }
+                result.add(file);
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", source);
+        }
+        return result;
+    }
+
+    /** Return the number of input files. */
+    int size() {
+        return _inputs.size();
+    }
+
+    /** Process all the input files, reporting each failure on the
+     *  standard error.  Returns the number of files that failed. */
+    int run() {
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(
+            () -> _template.copy());
+        ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+        for (File input : _inputs) {
+            tasks.add(() -> processFile(machines.get(), input));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        long start = System.nanoTime();
+        int failed = 0;
+        try {
+            for (Future<Boolean> result : pool.invokeAll(tasks)) {
+                if (!result.get()) {
+                    failed += 1;
+                }
+            }
+        } catch (InterruptedException excp) {
+            throw error("batch interrupted");
+        } catch (ExecutionException excp) {
+            throw error("batch failed: %s", excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        _nanos = System.nanoTime() - start;
+        _failed = failed;
+        return failed;
+    }
+
+    /** Return a one-line report of the files processed, and the bytes of
+     *  input successfully processed, per second by the last run. */
+    String summary() {
+        double seconds = Math.max(_nanos, 1) / 1e9;
+        return String.format("batch: %d files (%d failed), %d bytes in "
+                             + "%.3f s: %.1f files/s, %.0f bytes/s%n",
+                             size(), _failed, _bytes.get(), seconds,
+                             size() / seconds, _bytes.get() / seconds);
+    }
+
+    /** Process INPUT with MACHINE.  Returns true iff there were no
+     *  errors, in the input or in writing the output; otherwise reports
+     *  the error on the standard error. */
+    private boolean processFile(Machine machine, File input) {
+        File output = outputFor(input);
+        try (Scanner in = new Scanner(new BufferedReader(
+                 new FileReader(input)));
+             PrintStream out = new PrintStream(new BufferedOutputStream(
+                 new FileOutputStream(output), BUFFER_SIZE))) {
+            _main.process(machine, in, out);
+            out.close();
+            if (out.checkError()) {
+                report(input, "could not write " + output);
+                return false;
+            }
+            _bytes.addAndGet(input.length());
+            return true;
+        } catch (IOException excp) {
+            report(input, "I/O error: " + excp.getMessage());
+        } catch (EnigmaException excp) {
+            report(input, excp.getMessage());
+        } catch (RuntimeException excp) {
+            report(input, excp.toString());
+        }
+        return false;
+    }
+
+    /** Report error MSG for file INPUT. */
+    private static void report(File input, String msg) {
+        System.err.printf("Error: %s: %s%n", input, msg);
+    }
+
+    /** Return the output file for INPUT. */
+    private File outputFor(File input) {
+        String name = input.getName();
+        if (name.endsWith(INPUT_SUFFIX)) {
+            name = name.substring(0, name.length() - INPUT_SUFFIX.length());
+        }
+        File dir = _outputDir != null ? _outputDir
+            : input.getAbsoluteFile().getParentFile();
+        return new File(dir, name + OUTPUT_SUFFIX);
+    }
+
+    /** Suffix of input files. */
+    static final String INPUT_SUFFIX = ".inp";
+
+    /** Suffix of output files. */
+    static final String OUTPUT_SUFFIX = ".out";
+
+    /** Size of each output file's buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Processes each file. */
+    private final Main _main;
+
+    /** Configured machine copied by each worker. */
+    private final Machine _template;
+
+    /** Files to process. */
+    private final ArrayList<File> _inputs;
+
+    /** Directory for output files, or null. */
+    private final File _outputDir;
+
+    /** Number of worker threads. */
+    private final int _threads;
+
+    /** Total size, in bytes, of the input files successfully
+     *  processed. */
+    private final AtomicLong _bytes = new AtomicLong();
+
+    /** Duration of the last run. */
+    private long _nanos;
+
+    /** Number of files that failed in the last run. */
+    private int _failed;
+}
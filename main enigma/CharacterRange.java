@@ -39,7 +39,7 @@ class CharacterRange extends Alphabet {
     @Override
     int toInt(char ch) {
         if (!contains(ch)) {
-            throw error("character out of range");
+            throw inputError("character out of range");
         }
         return ch - _first;
     }
@@ -0,0 +1,277 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A sidecar index of checkpoints in an encrypted output, allowing any
+ *  byte range of that output to be decrypted without replaying it from
+ *  the start of its message.  A checkpoint is taken at the start of each
+ *  message and then at the start of the first output line after every K
+ *  further characters; it records the input and output byte offsets of
+ *  that line, the message's setting line, and the rotor positions before
+ *  the line is converted.
+ *
+ *  The index is a text file with one entry per line: "S SETTING" starts a
+ *  new message, and "C INPUT OUTPUT P0,P1,..." is a checkpoint in the
+ *  message of the last preceding S line.  Input offsets assume lines end
+ *  with a single newline.
+ *  @author Jacqueline Angelina
+ */
+class Checkpoints {
+
+    /** One checkpoint. */
+    static final class Checkpoint {
+        /** A checkpoint at INPUT and OUTPUT offsets in the message set up
+         *  by SETTING, with rotor POSITIONS. */
+        Checkpoint(long input, long output, String setting,
+                   int[] positions) {
+            this.input = input;
+            this.output = output;
+            this.setting = setting;
+            this.positions = positions;
+        }
+
+        /** Byte offset in the input. */
+        final long input;
+        /** Byte offset in the output. */
+        final long output;
+        /** Setting line of the message. */
+        final String setting;
+        /** Rotor positions. */
+        final int[] positions;
+    }
+
+    /** A recorder that writes an index to INDEX, taking a checkpoint
+     *  every EVERY characters, where OUTPUT counts the bytes of output
+     *  produced. */
+    Checkpoints(File index, int every, CountingOutputStream output) {
+        if (every < 1) {
+            throw error("checkpoint interval must be positive");
+        }
+        try {
+            _index = new BufferedWriter(new FileWriter(index));
+            _index.write("# enigma checkpoint index\n");
+        } catch (IOException excp) {
+            throw error("could not open %s", index);
+        }
+        _every = every;
+        _output = output;
+    }
+
+    /** Note that the input line LINE has been read. */
+    void read(String line) {
+        _inputOffset += line.getBytes(CHARSET).length + 1;
+    }
+
+    /** Note that MACHINE has just been set up for a new message by the
+     *  setting line SETTING (which has already been read). */
+    void message(String setting, Machine machine) {
+        write("S " + setting);
+        checkpoint(_inputOffset, machine);
+    }
+
+    /** Note that a message line is about to be read and converted by
+     *  MACHINE, taking a checkpoint if one is due. */
+    void beforeLine(Machine machine) {
+        if (_sinceCheckpoint >= _every) {
+            checkpoint(_inputOffset, machine);
+        }
+    }
+
+    /** Note that a message line has produced CHARS converted
+     *  characters. */
+    void afterLine(int chars) {
+        _sinceCheckpoint += chars;
+    }
+
+    /** Finish writing the index. */
+    void close() {
+        try {
+            _index.close();
+        } catch (IOException excp) {
+            throw error("could not write checkpoint index");
+        }
+    }
+
+    /** Record a checkpoint at input offset INPUT with MACHINE's current
+     *  rotor positions. */
+    private void checkpoint(long input, Machine machine) {
+        StringBuilder entry = new StringBuilder("C ");
+        entry.append(input).append(' ').append(_output.count()).append(' ');
+        int[] positions = machine.positions();
+        for (int i = 0; i < positions.length; i += 1) {
+            if (i > 0) {
+                entry.append(',');
+            }
+            entry.append(positions[i]);
+        }
+        write(entry.toString());
+        _sinceCheckpoint = 0;
+    }
+
+    /** Write LINE to the index. */
+    private void write(String line) {
+        try {
+            _index.write(line);
+            _index.write('\n');
+        } catch (IOException excp) {
+            throw error("could not write checkpoint index");
+        }
+    }
+
+    /** Return the checkpoints in the index file INDEX, in order. */
+    static List<Checkpoint> load(File index) {
+        ArrayList<Checkpoint> result = new ArrayList<>();
+        String setting = null;
+        try {
+            for (String line : Files.readAllLines(index.toPath())) {
+                if (line.startsWith("S ")) {
+                    setting = line.substring(2);
+                } else if (line.startsWith("C ") && setting != null) {
+                    String[] fields = line.split(" ");
+                    String[] posns = fields[3].split(",");
+                    int[] positions = new int[posns.length];
+                    for (int i = 0; i < posns.length; i += 1) {
+                        positions[i] = Integer.parseInt(posns[i]);
+                    }
+                    result.add(new Checkpoint(Long.parseLong(fields[1]),
+                                              Long.parseLong(fields[2]),
+                                              setting, positions));
+                } else if (!line.startsWith("#")) {
+                    throw error("bad checkpoint index %s", index);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", index);
+        } catch (NumberFormatException
+                 | ArrayIndexOutOfBoundsException excp) {
+            throw error("bad checkpoint index %s", index);
+        }
+        return result;
+    }
+
+    /** Decrypt bytes START (inclusive) to END (exclusive) of the encrypted
+     *  file ENCRYPTED, using MAIN to set up MACHINE from CHECKPOINTS, and
+     *  print the result on OUTPUT.  Only the text from the nearest
+     *  checkpoint at or before START (or from the start of the file, if
+     *  START precedes the first checkpoint) is read.  Grouping spaces and
+     *  line breaks are copied as they are. */
+    static void decrypt(Main main, Machine machine,
+                        List<Checkpoint> checkpoints, File encrypted,
+                        long start, long end, PrintStream output) {
+        if (checkpoints.isEmpty() || start >= end) {
+            return;
+        }
+        int next = 0;
+        int lo = 0, hi = checkpoints.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (checkpoints.get(mid).output <= start) {
+                next = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Alphabet alphabet = machine.alphabet();
+        String setting = null;
+        long offset = start < checkpoints.get(0).output ? 0
+            : checkpoints.get(next).output;
+        try (FileChannel channel = new RandomAccessFile(encrypted, "r")
+                 .getChannel()) {
+            channel.position(offset);
+            InputStream in = new BufferedInputStream(
+                Channels.newInputStream(channel));
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            StringBuilder result = new StringBuilder();
+            while (offset < end) {
+                line.reset();
+                int b;
+                while ((b = in.read()) >= 0 && b != '\n') {
+                    line.write(b);
+                }
+                if (b < 0 && line.size() == 0) {
+                    break;
+                }
+                while (next < checkpoints.size()
+                       && checkpoints.get(next).output <= offset) {
+                    Checkpoint point = checkpoints.get(next);
+                    if (!point.setting.equals(setting)) {
+                        main.setUp(machine, point.setting);
+                        setting = point.setting;
+                    }
+                    machine.setPositions(point.positions);
+                    next += 1;
+                }
+                result.setLength(0);
+                String text = line.toString(CHARSET);
+                for (int i = 0; i < text.length() && offset < end; i += 1) {
+                    char ch = text.charAt(i);
+                    if (alphabet.contains(ch)) {
+                        ch = alphabet.toChar(machine.convert(
+                            alphabet.toInt(ch)));
+                    }
+                    if (offset >= start) {
+                        result.append(ch);
+                    }
+                    offset += byteLength(text.charAt(i));
+                }
+                if (b == '\n' && offset < end) {
+                    if (offset >= start) {
+                        result.append('\n');
+                    }
+                    offset += 1;
+                }
+                output.print(result);
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", encrypted);
+        }
+        output.flush();
+    }
+
+    /** Return the number of bytes in the encoding of CH. */
+    private static int byteLength(char ch) {
+        if (ch < ASCII_LIMIT) {
+            return 1;
+        }
+        return String.valueOf(ch).getBytes(CHARSET).length;
+    }
+
+    /** Characters below this encode in one byte in all usual charsets. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** Character set of the input and output. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Destination of the index. */
+    private Writer _index;
+
+    /** Checkpoint interval in characters. */
+    private int _every;
+
+    /** Counts the output bytes. */
+    private CountingOutputStream _output;
+
+    /** Byte offset in the input of the next line to be read. */
+    private long _inputOffset;
+
+    /** Characters converted since the last checkpoint. */
+    private long _sinceCheckpoint;
+}
@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An Alphabet consisting of the Unicode code points of a string, in
+ *  order, which may include supplementary characters.  Lookups by
+ *  character take constant time through a two-level table: the high bits
+ *  of a code point select a page, and its low bits an entry in that page
+ *  holding the character's index.  Only pages containing characters of
+ *  the alphabet are allocated, so memory stays proportional to the
+ *  alphabet rather than to the range of code points it spans.
+ *  @author Jacqueline Angelina
+ */
+class CodePointAlphabet extends Alphabet {
+
+    /** An alphabet consisting of the code points of CHARS, which must be
+     *  distinct. */
+    CodePointAlphabet(String chars) {
+        _codePoints = chars.codePoints().toArray();
+        int max = 0;
+        for (int cp : _codePoints) {
+            max = Math.max(max, cp);
+        }
+        _pages = new int[(max >>> PAGE_BITS) + 1][];
+        for (int i = 0; i < _codePoints.length; i += 1) {
+            int cp = _codePoints[i];
+            int[] page = _pages[cp >>> PAGE_BITS];
+            if (page == null) {
+                page = new int[PAGE_SIZE];
+                Arrays.fill(page, -1);
+                _pages[cp >>> PAGE_BITS] = page;
+            }
+            if (page[cp & PAGE_MASK] >= 0) {
+                throw error("character '%s' repeated in alphabet",
+                            new String(Character.toChars(cp)));
+            }
+            page[cp & PAGE_MASK] = i;
+        }
+        _bmp = _codePoints.length == chars.length();
+    }
+
+    @Override
+    int size() {
+        return _codePoints.length;
+    }
+
+    @Override
+    boolean isBmp() {
+        return _bmp;
+    }
+
+    @Override
+    boolean contains(char ch) {
+        return containsCodePoint(ch);
+    }
+
+    @Override
+    char toChar(int index) {
+        int cp = toCodePoint(index);
+        if (!Character.isBmpCodePoint(cp)) {
+            throw error("character is not a single char");
+        }
+        return (char) cp;
+    }
+
+    @Override
+    int toInt(char ch) {
+        return indexOf(ch);
+    }
+
+    @Override
+    boolean containsCodePoint(int cp) {
+        return lookup(cp) >= 0;
+    }
+
+    @Override
+    int toCodePoint(int index) {
+        if (index < 0 || index >= _codePoints.length) {
+            throw error("character index out of range");
+        }
+        return _codePoints[index];
+    }
+
+    @Override
+    int indexOf(int cp) {
+        int result = lookup(cp);
+        if (result < 0) {
+            throw inputError("character out of range");
+        }
+        return result;
+    }
+
+    /** Return the index of CP, or -1 if it is not in the alphabet. */
+    private int lookup(int cp) {
+        int high = cp >>> PAGE_BITS;
+        if (high >= _pages.length || _pages[high] == null) {
+            return -1;
+        }
+        return _pages[high][cp & PAGE_MASK];
+    }
+
+    /** Number of low-order code point bits that index within a page. */
+    private static final int PAGE_BITS = 8;
+
+    /** Entries per page. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /** Mask selecting the index within a page. */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** The code points of the alphabet, in order. */
+    private final int[] _codePoints;
+
+    /** Page table: _pages[cp >>> PAGE_BITS][cp & PAGE_MASK] is the index
+     *  of cp, or -1; pages with no characters are null. */
+    private final int[][] _pages;
+
+    /** True iff every code point is in the Basic Multilingual Plane. */
+    private final boolean _bmp;
+}
@@ -0,0 +1,257 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** The configurations in use by a long-running process, any number of
+ *  them, by file.  Each file is parsed once per distinct content: parsed
+ *  configurations are cached by the SHA-256 hash of the file, so files
+ *  with the same text (or a file rewritten with unchanged text) share one
+ *  parse.  Across configurations, equal alphabets and equal rotor
+ *  descriptions are shared, so that a rotor that appears in several
+ *  catalogs is compiled once (and Permutation shares equal tables in
+ *  any case).
+ *
+ *  The current configuration of each file is held in an immutable map
+ *  that is replaced as a whole, so readers never lock.  reload replaces
+ *  the configurations of changed files atomically; machines made from
+ *  an old configuration keep it, since a Config and the catalog it
+ *  copies are never modified.
+ *  @author Jacqueline Angelina
+ */
+class ConfigRegistry {
+
+    /** One configuration file's content, as of one load.  Immutable. */
+    static final class Config {
+        /** The configuration of FILE, whose content had hash HASH and
+         *  which was last modified at MODIFIED with length LENGTH.
+         *  Machines are copied from TEMPLATE. */
+        private Config(File file, String hash, long modified, long length,
+                       Machine template) {
+            _file = file;
+            _hash = hash;
+            _modified = modified;
+            _length = length;
+            _template = template;
+        }
+
+        /** Return the file I was loaded from. */
+        File file() {
+            return _file;
+        }
+
+        /** Return the hash of my content, which identifies it. */
+        String hash() {
+            return _hash;
+        }
+
+        /** Return a new machine as configured, with no rotors inserted. */
+        Machine machine() {
+            return _template.copy();
+        }
+
+        /** The file loaded. */
+        private final File _file;
+        /** Hash of the file's content. */
+        private final String _hash;
+        /** Modification time of the file when loaded. */
+        private final long _modified;
+        /** Length of the file when loaded. */
+        private final long _length;
+        /** Machine copied by machine(), which is never itself used. */
+        private final Machine _template;
+    }
+
+    /** Return the current configuration of FILE, loading it if it is not
+     *  yet registered. */
+    Config get(File file) {
+        File key = file.getAbsoluteFile();
+        Config result = _configs.get(key);
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            result = _configs.get(key);
+            if (result == null) {
+                result = load(key);
+                publish(key, result);
+            }
+            return result;
+        }
+    }
+
+    /** Return the current configurations. */
+    List<Config> configs() {
+        return new ArrayList<>(_configs.values());
+    }
+
+    /** Return the number of distinct parsed configurations held. */
+    synchronized int cached() {
+        return _parsed.size();
+    }
+
+    /** Reload each registered file that has changed since it was loaded.
+     *  A file that can no longer be read or parsed keeps its previous
+     *  configuration, and the error is reported on the standard error,
+     *  once for each version of the file that fails.  Returns the number
+     *  of configurations replaced. */
+    synchronized int reload() {
+        HashMap<File, Config> next = new HashMap<>(_configs);
+        int replaced = 0;
+        for (Config config : _configs.values()) {
+            File file = config._file;
+            long modified = file.lastModified();
+            long length = file.length();
+            if (modified == config._modified && length == config._length) {
+                continue;
+            }
+            String version = modified + ":" + length;
+            if (version.equals(_failed.get(file))) {
+                continue;
+            }
+            try {
+                Config fresh = load(file);
+                next.put(file, fresh);
+                _failed.remove(file);
+                if (!fresh._hash.equals(config._hash)) {
+                    replaced += 1;
+                }
+            } catch (EnigmaException excp) {
+                _failed.put(file, version);
+                System.err.printf("Error: %s: %s%n", file,
+                                  excp.getMessage());
+            }
+        }
+        _configs = Collections.unmodifiableMap(next);
+        prune();
+        return replaced;
+    }
+
+    /** Return the alphabet described by DESCRIPTION in a configuration
+     *  file, shared with other configurations that use it. */
+    synchronized Alphabet alphabet(String description) {
+        WeakReference<Alphabet> ref = _alphabets.get(description);
+        Alphabet result = ref == null ? null : ref.get();
+        if (result == null) {
+            result = Main.alphabet(description);
+            _alphabets.put(description, new WeakReference<>(result));
+        }
+        return result;
+    }
+
+    /** Return the description of a rotor named NAME of type TYPE with
+     *  cycles CYCLES over the alphabet described by ALPHABET, shared with
+     *  other configurations that describe it identically. */
+    synchronized RotorSpec rotor(String alphabet, String name, String type,
+                                 String cycles) {
+        String key = alphabet + '\0' + name + '\0' + type + '\0' + cycles;
+        WeakReference<RotorSpec> ref = _rotors.get(key);
+        RotorSpec result = ref == null ? null : ref.get();
+        if (result == null) {
+            result = new RotorSpec(name, type, cycles, alphabet(alphabet));
+            _rotors.put(key, new WeakReference<>(result));
+        }
+        return result;
+    }
+
+    /** Return the configuration now in FILE, parsing it unless its
+     *  content is already parsed. */
+    private Config load(File file) {
+        byte[] content;
+        long modified = file.lastModified();
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        String hash = hash(content);
+        Machine template = _parsed.get(hash);
+        if (template == null) {
+            template = Main.readConfig(
+                new Scanner(new String(content, CHARSET)), this);
+            _parsed.put(hash, template);
+        }
+        return new Config(file, hash, modified, content.length, template);
+    }
+
+    /** Make CONFIG the configuration of FILE. */
+    private void publish(File file, Config config) {
+        HashMap<File, Config> next = new HashMap<>(_configs);
+        next.put(file, config);
+        _configs = Collections.unmodifiableMap(next);
+    }
+
+    /** Drop parsed configurations that no file has any more, and shared
+     *  alphabets and rotors that nothing uses. */
+    private void prune() {
+        HashSet<String> live = new HashSet<>();
+        for (Config config : _configs.values()) {
+            live.add(config._hash);
+        }
+        _parsed.keySet().retainAll(live);
+        for (Iterator<WeakReference<Alphabet>> i =
+                 _alphabets.values().iterator(); i.hasNext();) {
+            if (i.next().get() == null) {
+                i.remove();
+            }
+        }
+        for (Iterator<WeakReference<RotorSpec>> i =
+                 _rotors.values().iterator(); i.hasNext();) {
+            if (i.next().get() == null) {
+                i.remove();
+            }
+        }
+    }
+
+    /** Return the SHA-256 hash of CONTENT in hexadecimal. */
+    private static String hash(byte[] content) {
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256")
+                     .digest(content)) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new AssertionError("SHA-256 is always available");
+        }
+    }
+
+    /** Character set in which configuration files are read. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** The current configuration of each file, by absolute file.  Never
+     *  modified; replaced as a whole. */
+    private volatile Map<File, Config> _configs = Collections.emptyMap();
+
+    /** The version (modification time and length) of each file whose
+     *  last reload failed, as of that reload. */
+    private final HashMap<File, String> _failed = new HashMap<>();
+
+    /** Template machines of the configurations in use, by content
+     *  hash. */
+    private final HashMap<String, Machine> _parsed = new HashMap<>();
+
+    /** Shared alphabets, by description. */
+    private final HashMap<String, WeakReference<Alphabet>> _alphabets =
+        new HashMap<>();
+
+    /** Shared rotor descriptions, by alphabet, name, type and cycles. */
+    private final HashMap<String, WeakReference<RotorSpec>> _rotors =
+        new HashMap<>();
+}
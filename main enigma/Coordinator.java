@@ -0,0 +1,265 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Runs one input through several worker JVMs on this machine.  The
+ *  input is cut into shards at setting lines (so that each shard is a
+ *  complete sequence of messages), each shard is fed to the standard
+ *  input of a separate "java enigma.Main CONFIG" process, and the
+ *  workers' outputs are copied to the final output in shard order.  A
+ *  worker that crashes is rerun; a worker that reports an error in its
+ *  input ends the run with that error, after the output that precedes it,
+ *  just as a single Main would.  Shards and their outputs are kept in a
+ *  temporary directory, so the coordinator's memory does not grow with
+ *  the input.
+ *  @author Jacqueline Angelina
+ */
+class Coordinator {
+
+    /** A coordinator that runs the messages from INPUT, which is about
+     *  SIZE characters long (or -1 if unknown), through SHARDS workers
+     *  configured by the file CONFIG, writing results to OUTPUT and
+     *  rerunning a crashed worker at most RETRIES times.  OPTIONS are
+     *  given to each worker as command-line options. */
+    Coordinator(File config, BufferedReader input, long size,
+                PrintStream output, int shards, int retries,
+                List<String> options) {
+        if (shards < 1) {
+            throw error("need at least one shard");
+        }
+        _config = config.getAbsoluteFile();
+        _input = input;
+        _size = size;
+        _output = output;
+        _shardCount = shards;
+        _retries = retries;
+        _options = new ArrayList<>(options);
+    }
+
+    /** Split the input, run the workers and merge their outputs. */
+    void run() {
+        try {
+            _dir = Files.createTempDirectory("enigma-shards").toFile();
+            try {
+                List<File> shards = split();
+                Process[] workers = new Process[shards.size()];
+                for (int i = 0; i < workers.length; i += 1) {
+                    workers[i] = launch(i);
+                }
+                try {
+                    for (int i = 0; i < workers.length; i += 1) {
+                        finish(i, workers[i]);
+                    }
+                } finally {
+                    for (Process worker : workers) {
+                        worker.destroyForcibly();
+                    }
+                }
+            } finally {
+                deleteAll(_dir);
+            }
+        } catch (IOException excp) {
+            throw error("sharded run failed: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("sharded run interrupted");
+        }
+    }
+
+    /** Copy the input into shard files of roughly equal size, each
+     *  starting with a setting line (or the blank lines just before one).
+     *  Returns the shard files. */
+    private List<File> split() throws IOException {
+        BufferedReader input = _input;
+        long size = _size;
+        if (size < 0) {
+            File spooled = new File(_dir, "input");
+            try (Writer out = new BufferedWriter(new FileWriter(spooled))) {
+                for (String line = input.readLine(); line != null;
+                     line = input.readLine()) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+            input = new BufferedReader(new FileReader(spooled));
+            size = spooled.length();
+        }
+        long target = Math.max(1, size / _shardCount);
+        ArrayList<File> shards = new ArrayList<>();
+        ArrayList<String> blanks = new ArrayList<>();
+        shards.add(shardFile(0, ".inp"));
+        Writer out = new BufferedWriter(new FileWriter(shards.get(0)));
+        try (BufferedReader in = input) {
+            long written = 0;
+            boolean started = false;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                if (Pipeline.isBlank(line)) {
+                    blanks.add(line);
+                    continue;
+                }
+                if (started && written >= target
+                    && shards.size() < _shardCount
+                    && Pipeline.isSetting(line)) {
+                    out.close();
+                    shards.add(shardFile(shards.size(), ".inp"));
+                    out = new BufferedWriter(
+                        new FileWriter(shards.get(shards.size() - 1)));
+                    written = 0;
+                }
+                blanks.add(line);
+                for (String held : blanks) {
+                    out.write(held);
+                    out.write('\n');
+                    written += held.length() + 1;
+                }
+                blanks.clear();
+                started = true;
+            }
+            for (String held : blanks) {
+                out.write(held);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return shards;
+    }
+
+    /** Start a worker process for shard number I. */
+    private Process launch(int i) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(jvmSettings());
+        Collections.addAll(command, "-cp",
+                           System.getProperty("java.class.path"),
+                           Main.class.getName(), _config.getPath());
+        command.addAll(_options);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectInput(shardFile(i, ".inp"));
+        builder.redirectOutput(shardFile(i, ".out"));
+        builder.redirectError(shardFile(i, ".err"));
+        return builder.start();
+    }
+
+    /** Return the settings of this JVM that workers should share: the
+     *  system properties and memory sizes it was started with (but not,
+     *  for example, options that attach a debugger or start a recording,
+     *  which would clash), and its default charset, in which the workers
+     *  must read the configuration and shards and write their output. */
+    private static List<String> jvmSettings() {
+        List<String> result = new ArrayList<>();
+        for (String arg : ManagementFactory.getRuntimeMXBean()
+                 .getInputArguments()) {
+            for (String prefix : SHARED_JVM_OPTIONS) {
+                if (arg.startsWith(prefix)) {
+                    result.add(arg);
+                    break;
+                }
+            }
+        }
+        result.add("-Dfile.encoding=" + Charset.defaultCharset().name());
+        return result;
+    }
+
+    /** Wait for WORKER, running shard I, to finish (rerunning it if it
+     *  crashes) and copy its output to _output.  Throws an
+     *  EnigmaException if the worker reported an error. */
+    private void finish(int i, Process worker)
+        throws IOException, InterruptedException {
+        int code = worker.waitFor();
+        for (int attempt = 0; code != 0 && errorMessage(i) == null
+                 && attempt < _retries; attempt += 1) {
+            worker = launch(i);
+            code = worker.waitFor();
+        }
+        Files.copy(shardFile(i, ".out").toPath(), _output);
+        _output.flush();
+        if (code != 0) {
+            String msg = errorMessage(i);
+            if (msg != null) {
+                throw error("%s", msg);
+            }
+            throw error("worker for shard %d failed with exit code %d",
+                        i, code);
+        }
+    }
+
+    /** Return the error reported by the worker for shard I, or null if it
+     *  reported none (for example, because it crashed). */
+    private String errorMessage(int i) throws IOException {
+        for (String line : Files.readAllLines(shardFile(i, ".err")
+                                              .toPath())) {
+            if (line.startsWith(ERROR_PREFIX)) {
+                return line.substring(ERROR_PREFIX.length());
+            }
+        }
+        return null;
+    }
+
+    /** Return the file in the temporary directory for shard I with
+     *  extension EXT. */
+    private File shardFile(int i, String ext) {
+        return new File(_dir, "shard" + i + ext);
+    }
+
+    /** Delete DIR and the files in it. */
+    private static void deleteAll(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /** Prefixes of the JVM options passed on to workers. */
+    private static final String[] SHARED_JVM_OPTIONS = {
+        "-D", "-Xms", "-Xmx", "-Xss"
+    };
+
+    /** Start of the line with which Main reports errors. */
+    private static final String ERROR_PREFIX = "Error: ";
+
+    /** Configuration file passed to each worker. */
+    private final File _config;
+
+    /** Source of input lines. */
+    private final BufferedReader _input;
+
+    /** Approximate length of the input, or -1 if unknown. */
+    private final long _size;
+
+    /** Destination of the merged output. */
+    private final PrintStream _output;
+
+    /** Maximum number of shards. */
+    private final int _shardCount;
+
+    /** Number of times to rerun a crashed worker. */
+    private final int _retries;
+
+    /** Command-line options given to each worker. */
+    private final List<String> _options;
+
+    /** Temporary directory holding shards and worker outputs. */
+    private File _dir;
+}
@@ -0,0 +1,37 @@
+package enigma;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** An output stream that counts the bytes written through it.
+ *  @author Jacqueline Angelina
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    /** A stream writing to OUT, counting from INITIAL. */
+    CountingOutputStream(OutputStream out, long initial) {
+        super(out);
+        _count = initial;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        _count += 1;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        _count += len;
+    }
+
+    /** Return INITIAL plus the number of bytes written so far. */
+    long count() {
+        return _count;
+    }
+
+    /** Bytes counted. */
+    private long _count;
+}
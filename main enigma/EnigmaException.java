@@ -12,6 +12,12 @@ class EnigmaException extends RuntimeException {
         super(msg);
     }
 
+    /** An exception whose getMessage() value is MSG, which records its
+     *  stack trace iff STACKTRACE. */
+    EnigmaException(String msg, boolean stackTrace) {
+        super(msg, null, false, stackTrace);
+    }
+
     /** A utility method that returns a new exception with a message
      *  formed from MSGFORMAT and ARGUMENTS, interpreted as for the
      *  String.format method or the standard printf methods.
@@ -23,4 +29,14 @@ class EnigmaException extends RuntimeException {
         return new EnigmaException(String.format(msgFormat, arguments));
     }
 
+    /** As for error, but for an error in the input being processed (a
+     *  bad setting line or a character outside the alphabet).  These are
+     *  only ever reported by their messages, and a run over bad input may
+     *  raise many of them, so the exception does not pay to capture a
+     *  stack trace. */
+    static EnigmaException inputError(String msgFormat, Object... arguments) {
+        return new EnigmaException(String.format(msgFormat, arguments),
+                                   false);
+    }
+
 }
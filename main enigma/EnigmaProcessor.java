@@ -0,0 +1,187 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A Flow.Processor that converts a stream of character chunks with a
+ *  Machine.  Each chunk's remaining characters are converted in place
+ *  (unless the chunk is read-only, in which case it is copied) and the
+ *  same chunk is passed downstream, so no buffers are allocated per item.
+ *  Rotor state carries over from chunk to chunk.  Since each input chunk
+ *  produces exactly one output chunk, demand from the subscriber is
+ *  passed straight upstream, which gives end-to-end backpressure.  At
+ *  most one subscriber is supported.
+ *  @author Jacqueline Angelina
+ */
+class EnigmaProcessor implements Flow.Processor<CharBuffer, CharBuffer> {
+
+    /** A processor converting with MACHINE, which must already be set
+     *  up. */
+    EnigmaProcessor(Machine machine) {
+        _machine = machine;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CharBuffer> subscriber) {
+        synchronized (this) {
+            if (_downstream != null) {
+                subscriber.onSubscribe(new Downstream());
+                subscriber.onError(
+                    new IllegalStateException("already subscribed"));
+                return;
+            }
+            _downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Downstream());
+        boolean terminated;
+        synchronized (this) {
+            _subscribed = true;
+            terminated = _terminated;
+        }
+        if (terminated) {
+            deliverTerminal(_error);
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        if (_cancelled) {
+            subscription.cancel();
+        } else {
+            drainDemand();
+        }
+    }
+
+    @Override
+    public void onNext(CharBuffer item) {
+        if (_failed || _cancelled) {
+            return;
+        }
+        CharBuffer chunk = item;
+        try {
+            if (chunk.isReadOnly() || !chunk.hasArray()) {
+                chunk = CharBuffer.allocate(item.remaining()).put(item);
+                chunk.flip();
+            }
+            _machine.convert(chunk.array(),
+                             chunk.arrayOffset() + chunk.position(),
+                             chunk.remaining());
+        } catch (EnigmaException excp) {
+            _failed = true;
+            _upstream.cancel();
+            _downstream.onError(excp);
+            return;
+        }
+        _downstream.onNext(chunk);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        terminate(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        terminate(null);
+    }
+
+    /** Pass completion (if ERROR is null) or ERROR on to the subscriber,
+     *  or hold it until there is one and its onSubscribe has returned. */
+    private void terminate(Throwable error) {
+        if (_failed) {
+            return;
+        }
+        synchronized (this) {
+            if (!_subscribed) {
+                _terminated = true;
+                _error = error;
+                return;
+            }
+        }
+        deliverTerminal(error);
+    }
+
+    /** Send completion (if ERROR is null) or ERROR to the subscriber. */
+    private void deliverTerminal(Throwable error) {
+        if (error == null) {
+            _downstream.onComplete();
+        } else {
+            _downstream.onError(error);
+        }
+    }
+
+    /** Pass any demand accumulated from the subscriber upstream, once
+     *  there is an upstream subscription. */
+    private void drainDemand() {
+        Flow.Subscription upstream = _upstream;
+        if (upstream == null) {
+            return;
+        }
+        long n = _demand.getAndSet(0);
+        if (n > 0) {
+            upstream.request(n);
+        }
+    }
+
+    /** The subscription given to my subscriber. */
+    private class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                _downstream.onError(new IllegalArgumentException(
+                    "non-positive request"));
+                return;
+            }
+            _demand.getAndAccumulate(n, (a, b) -> {
+                long sum = a + b;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drainDemand();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            Flow.Subscription upstream = _upstream;
+            if (upstream != null) {
+                upstream.cancel();
+            }
+        }
+    }
+
+    /** Machine converting the chunks. */
+    private final Machine _machine;
+
+    /** My subscriber, or null. */
+    private volatile Flow.Subscriber<? super CharBuffer> _downstream;
+
+    /** My subscription to the publisher, or null. */
+    private volatile Flow.Subscription _upstream;
+
+    /** Demand from the subscriber not yet passed upstream. */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /** True once my subscriber's onSubscribe has returned. */
+    private boolean _subscribed;
+
+    /** True iff completion or an error arrived before there was a
+     *  subscriber whose onSubscribe had returned. */
+    private boolean _terminated;
+
+    /** The error held for the subscriber, or null if it was
+     *  completion. */
+    private Throwable _error;
+
+    /** True once the subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** True once a conversion error has been reported downstream. */
+    private volatile boolean _failed;
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/** A Reader that delivers the encoding/decoding by a Machine of the
+ *  characters read from another Reader.  Every character read must be in
+ *  the machine's alphabet.  The machine's rotors advance as characters
+ *  are read, so reading in any size of pieces gives the same result as
+ *  converting the whole text at once, and memory use does not depend on
+ *  the length of the text.
+ *  @author Jacqueline Angelina
+ */
+class EnigmaReader extends FilterReader {
+
+    /** A Reader that converts the characters of IN using MACHINE, which
+     *  must already be set up. */
+    EnigmaReader(Reader in, Machine machine) {
+        super(in);
+        _machine = machine;
+        _alphabet = machine.alphabet();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = in.read();
+        if (c < 0) {
+            return c;
+        }
+        return _alphabet.toChar(_machine.convert(_alphabet.toInt((char) c)));
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = in.read(cbuf, off, len);
+        if (n > 0) {
+            _machine.convert(cbuf, off, n);
+        }
+        return n;
+    }
+
+    /** Skip N characters, which are converted (and so advance the
+     *  rotors) exactly as if they had been read.  Returns the number
+     *  skipped. */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+        if (_skipBuffer == null) {
+            _skipBuffer = new char[SKIP_BUFFER_SIZE];
+        }
+        long remaining = n;
+        while (remaining > 0) {
+            int k = read(_skipBuffer, 0,
+                         (int) Math.min(remaining, _skipBuffer.length));
+            if (k < 0) {
+                break;
+            }
+            remaining -= k;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset not supported");
+    }
+
+    /** Size of the buffer used for skipping. */
+    private static final int SKIP_BUFFER_SIZE = 1024;
+
+    /** Machine that converts the characters read. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Buffer reused by skip, allocated on first use. */
+    private char[] _skipBuffer;
+}
@@ -0,0 +1,69 @@
+package enigma;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/** A Writer that passes the encoding/decoding by a Machine of the
+ *  characters written to it on to another Writer.  Every character
+ *  written must be in the machine's alphabet.  Characters are converted
+ *  through one fixed-size buffer, so the caller's arrays are never
+ *  modified and memory use does not depend on the length of the text.
+ *  @author Jacqueline Angelina
+ */
+class EnigmaWriter extends FilterWriter {
+
+    /** A Writer that converts characters using MACHINE, which must
+     *  already be set up, and writes the results to OUT. */
+    EnigmaWriter(Writer out, Machine machine) {
+        super(out);
+        _machine = machine;
+        _alphabet = machine.alphabet();
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(_alphabet.toChar(_machine.convert(_alphabet.toInt(
+            (char) c))));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            System.arraycopy(cbuf, off, _buffer, 0, n);
+            flushBuffer(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _buffer.length);
+            str.getChars(off, off + n, _buffer, 0);
+            flushBuffer(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Convert the first N characters of _buffer and write them out. */
+    private void flushBuffer(int n) throws IOException {
+        _machine.convert(_buffer, 0, n);
+        out.write(_buffer, 0, n);
+    }
+
+    /** Size of the conversion buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Machine that converts the characters written. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** Buffer in which characters are converted before being written. */
+    private final char[] _buffer = new char[BUFFER_SIZE];
+}
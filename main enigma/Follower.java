@@ -0,0 +1,355 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** Processes an input file that keeps growing, like "tail -f".  Each time
+ *  complete lines are appended to the input, they are processed as Main
+ *  would process them and the results are appended to the output.  After
+ *  each such step, the input offset reached, the output length, the
+ *  current setting line and the rotor positions are saved in a small
+ *  state file, so that a later run resumes exactly where this one
+ *  stopped.  On resumption the output file is cut back to the saved
+ *  length, so output written after the last saved state is not
+ *  duplicated.
+ *
+ *  The configuration file is watched too.  When it changes, messages
+ *  from the next setting line on use the new configuration, while the
+ *  message in progress finishes with the old one.
+ *  @author Jacqueline Angelina
+ */
+class Follower {
+
+    /** A follower that uses MAIN to run machines configured from the
+     *  file CONFIG over the lines appended to INPUT, appending results to
+     *  OUTPUT (the standard output if null) and keeping its state in
+     *  STATE.  The output statistics, if any, go to the recorder of
+     *  MACHINE, which is configured from CONFIG.  If IDLEMILLIS > 0, it
+     *  stops after that many milliseconds without new input; otherwise it
+     *  runs until killed. */
+    Follower(Main main, Machine machine, File config, File input,
+             File output, File state, long idleMillis) {
+        ConfigRegistry.Config initial = _configs.get(config);
+        _main = main;
+        _machine = initial.machine();
+        _alphabet = _machine.alphabet();
+        if (machine.recorder() != null
+            && machine.alphabet().size() == _alphabet.size()) {
+            _machine.setRecorder(machine.recorder());
+        }
+        _text = new MessageLine(main.passthrough(_alphabet));
+        _configFile = config;
+        _configHash = initial.hash();
+        _input = input;
+        _outputFile = output;
+        _state = state;
+        _idleMillis = idleMillis;
+    }
+
+    /** Follow the input until idle (or forever). */
+    void run() {
+        try {
+            restore();
+            try (WatchService watcher = FileSystems.getDefault()
+                     .newWatchService();
+                 FileChannel in = new RandomAccessFile(_input, "r")
+                     .getChannel()) {
+                Path dir = _input.getAbsoluteFile().getParentFile().toPath();
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
+                long idleSince = System.currentTimeMillis();
+                while (true) {
+                    _configs.reload();
+                    if (step(in)) {
+                        idleSince = System.currentTimeMillis();
+                    } else if (_idleMillis > 0
+                               && System.currentTimeMillis() - idleSince
+                               >= _idleMillis) {
+                        return;
+                    }
+                    WatchKey key = watcher.poll(
+                        _idleMillis > 0 ? Math.min(_idleMillis, POLL_MILLIS)
+                        : POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                }
+            } finally {
+                _output.flush();
+            }
+        } catch (IOException excp) {
+            throw error("could not follow %s: %s", _input, excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Process any complete lines appended to IN since the last step and
+     *  save the new state.  Returns true iff there were any. */
+    private boolean step(FileChannel in) throws IOException {
+        long size = in.size();
+        if (size < _readOffset) {
+            throw error("%s was truncated", _input);
+        }
+        if (size == _readOffset) {
+            return false;
+        }
+        boolean progress = false;
+        while (_readOffset < size) {
+            _buffer.clear();
+            int n = in.read(_buffer, _readOffset);
+            if (n <= 0) {
+                break;
+            }
+            _buffer.flip();
+            while (_buffer.hasRemaining()) {
+                byte b = _buffer.get();
+                _readOffset += 1;
+                if (b == '\n') {
+                    line(_lineStart, decodeLine());
+                    _lineStart = _readOffset;
+                    _line.reset();
+                    progress = true;
+                } else {
+                    _line.write(b);
+                }
+            }
+        }
+        _readOffset = _lineStart;
+        _line.reset();
+        if (progress) {
+            _output.flush();
+            save();
+        }
+        return progress;
+    }
+
+    /** Return the line accumulated in _line, without its terminator. */
+    private String decodeLine() {
+        String line = _line.toString(CHARSET);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        return line;
+    }
+
+    /** Process LINE, which starts at byte OFFSET of the input.  Blank lines
+     *  are held back until the next non-blank line shows whether they
+     *  separate messages or belong to one, exactly as in Main. */
+    private void line(long offset, String line) {
+        if (Pipeline.isBlank(line)) {
+            if (_blanks.isEmpty()) {
+                _blanksOffset = offset;
+            }
+            _blanks.add(line);
+            return;
+        }
+        boolean setting = !_started || Pipeline.isSetting(line);
+        for (String blank : _blanks) {
+            if (setting) {
+                _output.println();
+            } else {
+                message(blank);
+            }
+        }
+        _blanks.clear();
+        if (setting) {
+            useLatestConfig();
+            _main.setUp(_machine, line);
+            _setting = line;
+            _started = true;
+        } else {
+            message(line);
+        }
+    }
+
+    /** Switch to a machine made from the latest configuration, if it has
+     *  changed.  Output statistics carry over if the alphabet is the same
+     *  size. */
+    private void useLatestConfig() {
+        ConfigRegistry.Config latest = _configs.get(_configFile);
+        if (latest.hash().equals(_configHash)) {
+            return;
+        }
+        Machine machine = latest.machine();
+        if (_machine.recorder() != null
+            && machine.alphabet().size() == _alphabet.size()) {
+            machine.setRecorder(_machine.recorder());
+        }
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _text = new MessageLine(_main.passthrough(_alphabet));
+        _configHash = latest.hash();
+    }
+
+    /** Convert and print the message line LINE. */
+    private void message(String line) {
+        _text.read(line);
+        _text.convert(_machine);
+        _text.print(_output);
+    }
+
+    /** Load the saved state, if any, and open the output to match it. */
+    private void restore() throws IOException {
+        long outputLength = 0;
+        if (_state.exists()) {
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(_state)) {
+                props.load(in);
+            }
+            try {
+                _lineStart = Long.parseLong(props.getProperty("offset"));
+                outputLength = Long.parseLong(props.getProperty("output"));
+                _setting = props.getProperty("setting");
+                if (_setting != null) {
+                    _started = true;
+                    _main.setUp(_machine, _setting);
+                    String[] fields = props.getProperty("positions")
+                        .split(",");
+                    int[] positions = new int[fields.length];
+                    for (int i = 0; i < fields.length; i += 1) {
+                        positions[i] = Integer.parseInt(fields[i]);
+                    }
+                    _machine.setPositions(positions);
+                }
+            } catch (NumberFormatException | NullPointerException excp) {
+                throw error("bad state file %s", _state);
+            }
+            _readOffset = _lineStart;
+        }
+        if (_outputFile == null) {
+            _output = System.out;
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(_outputFile,
+                                                         "rw")) {
+            if (out.length() > outputLength) {
+                out.setLength(outputLength);
+            }
+        }
+        _outputStream = new CountingOutputStream(
+            new FileOutputStream(_outputFile, true), _outputFile.length());
+        _output = new PrintStream(new BufferedOutputStream(_outputStream));
+    }
+
+    /** Write the current state to the state file, replacing it
+     *  atomically. */
+    private void save() throws IOException {
+        Properties props = new Properties();
+        long offset = _blanks.isEmpty() ? _lineStart : _blanksOffset;
+        props.setProperty("offset", Long.toString(offset));
+        props.setProperty("output", Long.toString(
+            _outputStream == null ? 0 : _outputStream.count()));
+        if (_setting != null) {
+            props.setProperty("setting", _setting);
+            StringBuilder positions = new StringBuilder();
+            for (int p : _machine.positions()) {
+                if (positions.length() > 0) {
+                    positions.append(',');
+                }
+                positions.append(p);
+            }
+            props.setProperty("positions", positions.toString());
+        }
+        File tmp = new File(_state.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            props.store(out, "enigma follow state");
+        }
+        Files.move(tmp.toPath(), _state.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Character set in which the input is decoded. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Longest wait for a change notification before checking anyway
+     *  (or before checking whether the idle time is up, if shorter). */
+    private static final long POLL_MILLIS = 500;
+
+    /** Interprets setting lines. */
+    private final Main _main;
+
+    /** The machine being run. */
+    private Machine _machine;
+
+    /** Alphabet of _machine. */
+    private Alphabet _alphabet;
+
+    /** Holds message lines while they are converted for _alphabet. */
+    private MessageLine _text;
+
+    /** The configuration file. */
+    private final File _configFile;
+
+    /** Loads and reloads the configuration file. */
+    private final ConfigRegistry _configs = new ConfigRegistry();
+
+    /** Hash of the configuration of _machine. */
+    private String _configHash;
+
+    /** The input file. */
+    private final File _input;
+
+    /** The output file, or null for the standard output. */
+    private final File _outputFile;
+
+    /** The state file. */
+    private final File _state;
+
+    /** Stop after this long without input (never if 0). */
+    private final long _idleMillis;
+
+    /** Destination for results. */
+    private PrintStream _output;
+
+    /** The counting stream under _output, if it is a file. */
+    private CountingOutputStream _outputStream;
+
+    /** Reused buffer for reading the input. */
+    private final ByteBuffer _buffer = ByteBuffer.allocate(1 << 16);
+
+    /** Bytes of the line being read. */
+    private final ByteArrayOutputStream _line = new ByteArrayOutputStream();
+
+    /** Input offset of the next byte to read. */
+    private long _readOffset;
+
+    /** Input offset of the start of the line being read. */
+    private long _lineStart;
+
+    /** Blank lines held back, and the input offset of the first. */
+    private final ArrayList<String> _blanks = new ArrayList<>();
+
+    /** Input offset of the first of _blanks. */
+    private long _blanksOffset;
+
+    /** True once the first setting line has been processed. */
+    private boolean _started;
+
+    /** The current setting line, or null. */
+    private String _setting;
+}
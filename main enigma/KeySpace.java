@@ -0,0 +1,298 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** The space of all settings of a machine configuration: each choice of
+ *  reflector, of rotors for the other slots, and of start positions.  As
+ *  Machine.insertRotors requires, slot 0 holds a reflector and the
+ *  slots without pawls hold rotors without ratchets; the pawl slots hold
+ *  rotors with ratchets, and no rotor appears twice.  The plugboard is
+ *  not part of the space.
+ *
+ *  Settings are numbered 0 .. size()-1 in mixed radix: the most
+ *  significant digit picks the reflector, the next numRotors()-1 digits
+ *  pick each slot's rotor from those not already used to its left, and
+ *  the last numRotors()-1 digits (base alphabet size) are the start
+ *  positions, the rightmost rotor's last.  A Cursor decodes a number
+ *  straight into a machine's state, inserting rotors only when the rotor
+ *  choice changes, which for consecutive numbers is rarely.  The
+ *  spliterator over the numbers knows its exact size and splits in
+ *  halves, so a parallel stream over a large space gives every core an
+ *  equal share.
+ *  @author Jacqueline Angelina
+ */
+class KeySpace {
+
+    /** The settings of machines like MACHINE. */
+    KeySpace(Machine machine) {
+        _numRotors = machine.numRotors();
+        _fixedSlots = machine.numRotors() - machine.numPawls();
+        _alphabet = machine.alphabet();
+        _alphabetSize = _alphabet.size();
+        ArrayList<String> reflectors = new ArrayList<>();
+        ArrayList<String> fixed = new ArrayList<>();
+        ArrayList<String> moving = new ArrayList<>();
+        for (RotorSpec spec : machine.catalog()) {
+            String name = spec.name().toUpperCase();
+            if (spec.reflecting()) {
+                reflectors.add(name);
+            } else if (spec.rotates()) {
+                moving.add(name);
+            } else {
+                fixed.add(name);
+            }
+        }
+        _reflectors = reflectors.toArray(new String[0]);
+        _fixed = fixed.toArray(new String[0]);
+        _moving = moving.toArray(new String[0]);
+        try {
+            long positions = 1;
+            for (int i = 1; i < _numRotors; i += 1) {
+                positions = Math.multiplyExact(positions, _alphabetSize);
+            }
+            long orders = _reflectors.length;
+            for (int i = 1; i < _numRotors; i += 1) {
+                orders = Math.multiplyExact(orders, radix(i));
+            }
+            _positionCount = positions;
+            _size = Math.multiplyExact(orders, positions);
+        } catch (ArithmeticException excp) {
+            throw error("too many settings to number");
+        }
+    }
+
+    /** Return the number of settings. */
+    long size() {
+        return _size;
+    }
+
+    /** Return a spliterator over the numbers of all settings. */
+    Spliterator.OfLong spliterator() {
+        return new Keys(0, _size);
+    }
+
+    /** Return a sequential stream of the numbers of all settings (use
+     *  parallel() to sweep them on all cores). */
+    LongStream keys() {
+        return StreamSupport.longStream(spliterator(), false);
+    }
+
+    /** Return a cursor that sets MACHINE, which must have the same catalog,
+     *  slots and alphabet as the machine I was made from, giving it
+     *  plugboard PLUGBOARD. */
+    Cursor cursor(Machine machine, Permutation plugboard) {
+        return new Cursor(machine, plugboard);
+    }
+
+    /** Return the setting line (without plugboard) for setting number
+     *  KEY, as Main.setUp accepts it. */
+    String setting(long key) {
+        Cursor decoder = new Cursor(null, null);
+        decoder.decode(key);
+        StringBuilder result = new StringBuilder("*");
+        for (String name : decoder._names) {
+            result.append(' ').append(name);
+        }
+        result.append(' ');
+        for (int i = 1; i < _numRotors; i += 1) {
+            result.appendCodePoint(
+                _alphabet.toCodePoint(decoder._positions[i]));
+        }
+        return result.toString();
+    }
+
+    /** Sets one machine to any setting by number.  Not thread-safe: each
+     *  thread of a sweep uses its own Cursor and machine. */
+    final class Cursor {
+
+        /** A cursor setting MACHINE (if not null), whose plugboard is set
+         *  to PLUGBOARD. */
+        private Cursor(Machine machine, Permutation plugboard) {
+            _machine = machine;
+            if (machine != null) {
+                machine.setPlugboard(plugboard);
+            }
+        }
+
+        /** Return the machine I set. */
+        Machine machine() {
+            return _machine;
+        }
+
+        /** Set my machine's rotors and positions to setting number KEY,
+         *  as if by a setting line. */
+        void set(long key) {
+            if (decode(key)) {
+                _machine.insertRotors(_names);
+            }
+            _machine.setPositions(_positions, 0);
+        }
+
+        /** Decode KEY into _names and _positions.  Returns true iff the
+         *  rotor choice differs from the last one decoded. */
+        private boolean decode(long key) {
+            if (key < 0 || key >= _size) {
+                throw error("no setting number %d", key);
+            }
+            long order = key / _positionCount;
+            long rest = key % _positionCount;
+            for (int i = _numRotors - 1; i > 0; i -= 1) {
+                _positions[i] = (int) (rest % _alphabetSize);
+                rest /= _alphabetSize;
+            }
+            if (order == _order) {
+                return false;
+            }
+            _order = order;
+            for (int i = _numRotors - 1; i > 0; i -= 1) {
+                _digits[i] = (int) (order % radix(i));
+                order /= radix(i);
+            }
+            _names[0] = _reflectors[(int) order];
+            pick(_fixed, 1, _fixedSlots);
+            pick(_moving, _fixedSlots, _numRotors);
+            return true;
+        }
+
+        /** Fill _names[START .. END-1] from CHOICES as directed by
+         *  _digits, each digit indexing the choices not yet used. */
+        private void pick(String[] choices, int start, int end) {
+            for (int i = start; i < end; i += 1) {
+                int d = _digits[i];
+                for (String choice : choices) {
+                    if (!used(choice, start, i)) {
+                        if (d == 0) {
+                            _names[i] = choice;
+                            break;
+                        }
+                        d -= 1;
+                    }
+                }
+            }
+        }
+
+        /** Return true iff NAME is among _names[START .. END-1]. */
+        private boolean used(String name, int start, int end) {
+            for (int i = start; i < end; i += 1) {
+                if (_names[i] == name) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The machine set, or null if only decoding. */
+        private final Machine _machine;
+
+        /** Rotor names of the last setting decoded. */
+        private final String[] _names = new String[_numRotors];
+
+        /** Positions of the last setting decoded, laid out as by
+         *  Machine.positions(). */
+        private final int[] _positions = new int[_numRotors];
+
+        /** Digits of the rotor choice of the last setting decoded. */
+        private final int[] _digits = new int[_numRotors];
+
+        /** Rotor choice (the setting number without its positions) of
+         *  the last setting decoded, or -1. */
+        private long _order = -1;
+    }
+
+    /** The spliterator over the setting numbers LO .. HI-1. */
+    private static final class Keys implements Spliterator.OfLong {
+
+        /** Setting numbers LO .. HI-1. */
+        Keys(long lo, long hi) {
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (_lo >= _hi) {
+                return false;
+            }
+            action.accept(_lo);
+            _lo += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            long hi = _hi;
+            for (long k = _lo; k < hi; k += 1) {
+                action.accept(k);
+            }
+            _lo = hi;
+        }
+
+        @Override
+        public Keys trySplit() {
+            long mid = _lo + (_hi - _lo) / 2;
+            if (mid <= _lo) {
+                return null;
+            }
+            Keys prefix = new Keys(_lo, mid);
+            _lo = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return _hi - _lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | SIZED | SUBSIZED | NONNULL
+                | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super Long> getComparator() {
+            return null;
+        }
+
+        /** Next setting number. */
+        private long _lo;
+
+        /** End of the range. */
+        private final long _hi;
+    }
+
+    /** Return the number of rotors that may fill slot I (> 0) given the
+     *  rotors in the slots to its left. */
+    private long radix(int i) {
+        return Math.max(0, i < _fixedSlots ? _fixed.length - (i - 1)
+                        : _moving.length - (i - _fixedSlots));
+    }
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of slots (including the reflector's) without pawls. */
+    private final int _fixedSlots;
+
+    /** Alphabet of the machines. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _alphabetSize;
+
+    /** Names of the reflectors, non-moving rotors and moving rotors. */
+    private final String[] _reflectors, _fixed, _moving;
+
+    /** Number of combinations of start positions. */
+    private final long _positionCount;
+
+    /** Number of settings. */
+    private final long _size;
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A histogram of durations in nanoseconds with bounded relative error,
+ *  in the style of an HDR histogram.  Values below 2**SUB_BITS are
+ *  counted exactly; larger values are counted in buckets that keep their
+ *  top SUB_BITS binary digits, so every bucket is within about 3% of the
+ *  values in it while the whole range of a long fits in under a thousand
+ *  counters.  Recording is thread-safe and does not allocate.
+ *  @author Jacqueline Angelina
+ */
+class LatencyHistogram {
+
+    /** Record one occurrence of VALUE (negative values count as 0). */
+    void record(long value) {
+        _counts.incrementAndGet(bucket(Math.max(value, 0)));
+    }
+
+    /** Return the number of values recorded. */
+    long count() {
+        long total = 0;
+        for (int i = 0; i < _counts.length(); i += 1) {
+            total += _counts.get(i);
+        }
+        return total;
+    }
+
+    /** Return the smallest recorded bucket value such that at least
+     *  FRACTION of all recorded values are at or below it (0 if nothing
+     *  has been recorded). */
+    long percentile(double fraction) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long needed = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < _counts.length(); i += 1) {
+            seen += _counts.get(i);
+            if (seen >= needed) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(_counts.length() - 1);
+    }
+
+    /** Return the index of the bucket holding VALUE >= 0. */
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS + 1;
+        return shift * HALF_SUB_COUNT + (int) (value >>> shift);
+    }
+
+    /** Return the smallest value in bucket INDEX. */
+    static long lowestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / HALF_SUB_COUNT - 1;
+        return (long) (index - shift * HALF_SUB_COUNT) << shift;
+    }
+
+    /** Return the largest value in bucket INDEX. */
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / HALF_SUB_COUNT - 1;
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+
+    /** Number of significant binary digits kept for each value. */
+    private static final int SUB_BITS = 5;
+
+    /** 2 ** SUB_BITS. */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** SUB_COUNT / 2: the number of buckets per power of two. */
+    private static final int HALF_SUB_COUNT = SUB_COUNT / 2;
+
+    /** Count of values in each bucket. */
+    private final AtomicLongArray _counts =
+        new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+}
@@ -0,0 +1,181 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Statistics of the characters produced by machines, gathered as they
+ *  are produced: the frequency of each character of the alphabet, over
+ *  all output and per message, and from these the index of coincidence
+ *  and the entropy.  Each machine feeds its own Recorder, which counts
+ *  the current message privately and folds it into the shared totals
+ *  (LongAdders, so concurrent workers do not contend) when the message
+ *  ends.  Well-keyed output is close to uniform: its normalized index of
+ *  coincidence is near 1 and its entropy near log2 of the alphabet
+ *  size.
+ *  @author Jacqueline Angelina
+ */
+class LetterStats {
+
+    /** Collects the statistics of one machine's output.  Not
+     *  thread-safe: each Recorder is used by one thread at a time. */
+    class Recorder {
+
+        /** Count the output character C (an index into the alphabet). */
+        void record(int c) {
+            _message[c] += 1;
+            _length += 1;
+        }
+
+        /** End the current message (if it has any characters), adding its
+         *  counts to the totals. */
+        void endMessage() {
+            if (_length == 0) {
+                return;
+            }
+            for (int i = 0; i < _message.length; i += 1) {
+                if (_message[i] != 0) {
+                    _counts[i].add(_message[i]);
+                }
+            }
+            _messages.increment();
+            if (_length > 1) {
+                double ioc = indexOfCoincidence(_message, _length);
+                _scored.increment();
+                _iocSum.add(ioc);
+                _iocMin.accumulate(ioc);
+                _iocMax.accumulate(ioc);
+            }
+            _entropySum.add(entropy(_message, _length));
+            Arrays.fill(_message, 0);
+            _length = 0;
+        }
+
+        /** Return the statistics I contribute to. */
+        LetterStats stats() {
+            return LetterStats.this;
+        }
+
+        /** Counts of each character in the current message. */
+        private final long[] _message = new long[_alphabet.size()];
+
+        /** Length of the current message. */
+        private long _length;
+    }
+
+    /** Statistics for output in ALPHABET. */
+    LetterStats(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _counts = new LongAdder[alphabet.size()];
+        for (int i = 0; i < _counts.length; i += 1) {
+            _counts[i] = new LongAdder();
+        }
+    }
+
+    /** Return a new Recorder for one machine. */
+    Recorder recorder() {
+        return new Recorder();
+    }
+
+    /** Return the total count of each character so far. */
+    long[] counts() {
+        long[] result = new long[_counts.length];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _counts[i].sum();
+        }
+        return result;
+    }
+
+    /** Return the number of messages ended so far. */
+    long messages() {
+        return _messages.sum();
+    }
+
+    /** Return the index of coincidence of a text of length TOTAL in which
+     *  character i occurs COUNTS[i] times, normalized by the alphabet size
+     *  so that uniformly random text scores 1.  TOTAL must exceed 1. */
+    static double indexOfCoincidence(long[] counts, long total) {
+        double pairs = 0;
+        for (long n : counts) {
+            pairs += (double) n * (n - 1);
+        }
+        return pairs * counts.length / ((double) total * (total - 1));
+    }
+
+    /** Return the Shannon entropy in bits per character of a text of
+     *  length TOTAL in which character i occurs COUNTS[i] times. */
+    static double entropy(long[] counts, long total) {
+        double result = 0;
+        for (long n : counts) {
+            if (n > 0) {
+                double p = (double) n / total;
+                result -= p * Math.log(p);
+            }
+        }
+        return result / Math.log(2);
+    }
+
+    /** Return a report of the statistics gathered so far. */
+    String report() {
+        long[] counts = counts();
+        long total = 0;
+        for (long n : counts) {
+            total += n;
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("letters: %d chars in %d messages, "
+                                    + "entropy %.4f bits/char (max %.4f)",
+                                    total, _messages.sum(),
+                                    total == 0 ? 0 : entropy(counts, total),
+                                    Math.log(counts.length) / Math.log(2)));
+        if (total > 1) {
+            result.append(String.format(", index of coincidence %.4f",
+                                        indexOfCoincidence(counts, total)));
+        }
+        result.append(String.format("%n"));
+        long scored = _scored.sum();
+        if (scored > 0) {
+            result.append(String.format("per message: index of coincidence"
+                                        + " mean %.4f min %.4f max %.4f, "
+                                        + "entropy mean %.4f%n",
+                                        _iocSum.sum() / scored,
+                                        _iocMin.get(), _iocMax.get(),
+                                        _entropySum.sum() / _messages.sum()));
+        }
+        for (int i = 0; i < counts.length; i += 1) {
+            result.append(String.format("%c %12d %7.3f%%%n",
+                                        _alphabet.toChar(i), counts[i],
+                                        total == 0 ? 0
+                                        : 100.0 * counts[i] / total));
+        }
+        return result.toString();
+    }
+
+    /** Alphabet of the output. */
+    private final Alphabet _alphabet;
+
+    /** Total count of each character. */
+    private final LongAdder[] _counts;
+
+    /** Number of messages with at least one character. */
+    private final LongAdder _messages = new LongAdder();
+
+    /** Number of messages with at least two characters, which have an
+     *  index of coincidence. */
+    private final LongAdder _scored = new LongAdder();
+
+    /** Sum of the indices of coincidence of scored messages. */
+    private final DoubleAdder _iocSum = new DoubleAdder();
+
+    /** Least index of coincidence of a scored message. */
+    private final DoubleAccumulator _iocMin =
+        new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+
+    /** Greatest index of coincidence of a scored message. */
+    private final DoubleAccumulator _iocMax =
+        new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+    /** Sum of the entropies of all messages. */
+    private final DoubleAdder _entropySum = new DoubleAdder();
+}
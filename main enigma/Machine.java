@@ -1,7 +1,11 @@
 package enigma;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import static enigma.EnigmaException.*;
 
@@ -15,11 +19,42 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, prototypes(allRotors));
+        for (Rotor rotor : allRotors) {
+            _compiled.put(rotor.name().toUpperCase(), rotor);
+        }
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are
+     *  described by CATALOG.  Each rotor is compiled from its description
+     *  only when insertRotors first selects it. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            List<RotorSpec> catalog) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = new ArrayList<>(allRotors);
+        _catalog = new LinkedHashMap<>();
+        for (RotorSpec spec : catalog) {
+            _catalog.put(spec.name().toUpperCase(), spec);
+        }
         _rotors = new Rotor[numRotors];
+        _positions = new int[numRotors];
+        setCacheBudget(DEFAULT_CACHE_BUDGET);
+    }
+
+    /** Return descriptions of the rotors ALLROTORS. */
+    private static List<RotorSpec> prototypes(Collection<Rotor> allRotors) {
+        ArrayList<RotorSpec> result = new ArrayList<>();
+        for (Rotor rotor : allRotors) {
+            result.add(new RotorSpec(rotor));
+        }
+        return result;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -35,100 +70,373 @@ class Machine {
     /** Gets the array of rotors in the machine.
      * @return List of rotors. */
     Rotor[] getRotor() {
+        syncRotors();
         return _rotors;
     }
 
+    /** Return a new machine with my alphabet, slots, pawls, cache budget
+     *  and catalog of available rotors, so that it can run independently
+     *  of (and concurrently with) me.  The copy makes its own rotors from
+     *  the catalog, sharing any compiled permutations.  No rotors are
+     *  inserted in the copy. */
+    Machine copy() {
+        Machine result = new Machine(_alphabet, _numRotors, _pawls,
+                                     new ArrayList<>(_catalog.values()));
+        result.setCacheBudget(_cacheBudget);
+        if (_recorder != null) {
+            result.setRecorder(_recorder.stats().recorder());
+        }
+        return result;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        for (int i = 0; i < rotors.length; i += 1) {
-            for (int j = 0; j < _allRotors.size(); j += 1) {
-                if (rotors[i].equals(_allRotors.get(j).name().toUpperCase())) {
-                    _rotors[i] = _allRotors.get(j);
+        syncRotors();
+        Rotor[] previous = _rotors.clone();
+        try {
+            for (int i = 0; i < rotors.length; i += 1) {
+                Rotor rotor = rotor(rotors[i]);
+                if (rotor != null) {
+                    _rotors[i] = rotor;
+                }
+                if (_rotors[i] == null) {
+                    throw inputError("Rotor doesn't exist.");
                 }
             }
-            if (_rotors[i] == null) {
-                throw error("Rotor doesn't exist.");
+            if (!_rotors[0].reflecting()) {
+                throw inputError("First rotor is not a reflector.");
+            }
+            if (rotors.length != _numRotors) {
+                throw inputError("Not enough number of rotor slots.");
+            }
+            for (int i = 0; i < numRotors() - numPawls(); i += 1) {
+                if (_rotors[i].rotates()) {
+                    throw inputError("Too many moving rotors.");
+                }
+            }
+            buildStack();
+        } finally {
+            if (!Arrays.equals(previous, _rotors)) {
+                invalidateCache();
             }
         }
-        if (!_rotors[0].reflecting()) {
-            throw error("First rotor is not a reflector.");
-        }
-        if (rotors.length != _numRotors) {
-            throw error("Not enough number of rotor slots.");
-        }
-        for (int i = 0; i < numRotors() - numPawls(); i += 1) {
-            if (_rotors[i].rotates()) {
-                throw error("Too many moving rotors.");
+    }
+
+    /** Return the descriptions of my available rotors. */
+    List<RotorSpec> catalog() {
+        return new ArrayList<>(_catalog.values());
+    }
+
+    /** Return my rotor whose upper-case name is NAME, compiling it from
+     *  the catalog if this is its first use, or null if there is none. */
+    private Rotor rotor(String name) {
+        Rotor result = _compiled.get(name);
+        if (result == null) {
+            RotorSpec spec = _catalog.get(name);
+            if (spec == null) {
+                return null;
             }
+            result = spec.compile();
+            _compiled.put(name, result);
         }
+        return result;
     }
 
     /** Set my rotors according to SETTING, which must be a string of
-     *  numRotors()-1 upper-case letters. The first letter refers to the
+     *  numRotors()-1 characters of my alphabet. The first refers to the
      *  leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        if (setting.length() != numRotors() - 1) {
-            throw error("Incorrect setting length.");
+        int[] points = setting.codePoints().toArray();
+        if (points.length != numRotors() - 1) {
+            throw inputError("Incorrect setting length.");
         }
         for (int i = 1; i < _rotors.length; i += 1) {
-            if (!_alphabet.contains(setting.charAt(i - 1))) {
-                throw error("Initial setting is not in alphabet");
+            if (!_alphabet.containsCodePoint(points[i - 1])) {
+                throw inputError("Initial setting is not in alphabet");
+            }
+            _rotors[i].set(_alphabet.indexOf(points[i - 1]));
+            _positions[i] = _rotors[i].setting();
+        }
+    }
+
+    /** Return the current settings of the rotors in my slots, the
+     *  reflector's first. */
+    int[] positions() {
+        return _positions.clone();
+    }
+
+    /** Restore the settings of my rotors to POSITIONS, as returned by
+     *  positions().  Unlike setRotors, this may be used in the middle of
+     *  a message. */
+    void setPositions(int[] positions) {
+        if (positions.length != _numRotors) {
+            throw error("Incorrect number of rotor positions.");
+        }
+        setPositions(positions, 0);
+    }
+
+    /** Restore the settings of my rotors from the numRotors() entries of
+     *  POSITIONS starting at OFF, laid out as by positions(). */
+    void setPositions(int[] positions, int off) {
+        for (int i = 1; i < _numRotors; i += 1) {
+            _rotors[i].set(positions[off + i]);
+            _positions[i] = _rotors[i].setting();
+        }
+    }
+
+    /** Lay out the wirings and notches of the rotors now in my slots in
+     *  _stack and _notches, and load _positions from their settings.
+     *  Slot I occupies 4 * size entries of _stack starting at
+     *  4 * size * I: its forward permutation written out twice, then its
+     *  inverse written out twice, so that a contact P at setting S maps
+     *  to _stack[base + P + S] - S (plus size if that is negative) with
+     *  no wrapping of the index. */
+    private void buildStack() {
+        int size = _alphabet.size();
+        _stack = new int[STACK_STRIDE * size * _numRotors];
+        _notches = new boolean[size * _numRotors];
+        _rotating = new boolean[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            Rotor rotor = _rotors[i];
+            int[] forward = rotor.permutation().toArray();
+            int[] backward = rotor.permutation().inverse().toArray();
+            int base = STACK_STRIDE * size * i;
+            for (int k = 0; k < 2; k += 1) {
+                System.arraycopy(forward, 0, _stack, base + k * size, size);
+                System.arraycopy(backward, 0, _stack,
+                                 base + (2 + k) * size, size);
+            }
+            for (int p = 0; p < size; p += 1) {
+                _notches[size * i + p] = rotor.notchAt(p);
+            }
+            _rotating[i] = rotor.rotates();
+            _positions[i] = rotor.setting();
+        }
+    }
+
+    /** Copy _positions back into the settings of the rotors in my
+     *  slots, which are not kept up to date as the machine runs. */
+    private void syncRotors() {
+        for (int i = 1; i < _numRotors; i += 1) {
+            if (_rotors[i] != null) {
+                _rotors[i].set(_positions[i]);
             }
-            _rotors[i].set(setting.charAt(i - 1));
         }
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        boolean changed = !plugboard.equals(_plugboard);
         _plugboard = plugboard;
+        if (changed) {
+            invalidateCache();
+        }
+    }
+
+    /** Report every character I produce to RECORDER (none if null).
+     *  Copies of me report to their own recorders for the same
+     *  statistics. */
+    void setRecorder(LetterStats.Recorder recorder) {
+        _recorder = recorder;
+    }
+
+    /** Return the recorder set by setRecorder, or null. */
+    LetterStats.Recorder recorder() {
+        return _recorder;
+    }
+
+    /** Limit the per-position substitution cache to about BYTES bytes of
+     *  tables.  A budget of 0 disables the cache.  Clears the cache. */
+    void setCacheBudget(long bytes) {
+        _cacheBudget = bytes;
+        long entryBytes = 4L * _alphabet.size() + CACHE_ENTRY_OVERHEAD;
+        long entries = bytes / entryBytes;
+        long positions = positionCount(_alphabet.size(), _numRotors - 1);
+        if (entries < 1 || positions < 0) {
+            _cacheKeys = null;
+            _cacheTable = null;
+            _cacheGenerations = null;
+            return;
+        }
+        int capacity = (int) Long.highestOneBit(Math.min(entries,
+                Math.min(positions, Math.min(MAX_CACHE_ENTRIES,
+                        Integer.MAX_VALUE / _alphabet.size()))));
+        _cacheKeys = new long[capacity];
+        _cacheTable = null;
+        _cacheGenerations = new int[capacity];
+        _generation = 1;
+    }
+
+    /** Return SIZE ** SLOTS, the number of distinct rotor-position tuples
+     *  for SLOTS settable rotors over an alphabet of SIZE characters, or -1
+     *  if that does not fit in a long. */
+    private static long positionCount(int size, int slots) {
+        long result = 1;
+        try {
+            for (int i = 0; i < slots; i += 1) {
+                result = Math.multiplyExact(result, (long) size);
+            }
+        } catch (ArithmeticException excp) {
+            return -1;
+        }
+        return result;
+    }
+
+    /** Forget every cached substitution.  Called whenever the rotors in
+     *  the slots or the plugboard change, since cached tables depend on
+     *  both; changing rotor settings alone does not invalidate anything,
+     *  because the settings are the cache key. */
+    private void invalidateCache() {
+        _generation += 1;
+        if (_generation == 0 && _cacheGenerations != null) {
+            Arrays.fill(_cacheGenerations, 0);
+            _generation = 1;
+        }
+        _involution = _plugboard != null && _rotors[0] != null
+            && _plugboard.isInvolution()
+            && _rotors[0].permutation().isInvolution();
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
-     *  the machine. */
+     *  the machine.  At each rotor position the whole path through the
+     *  machine is a fixed substitution, which is remembered in the
+     *  position cache, so revisiting a position costs one lookup.  Once
+     *  the cache has been allocated (by the first call), this allocates
+     *  nothing. */
     int convert(int c) {
-        boolean[] moves;
-        moves = new boolean[numRotors()];
-        for (int i = numRotors() - 1; i >= 0; i -= 1) {
-            if (i == numRotors() - 1) {
-                moves[i] = true;
-            } else if (_rotors[i].rotates()) {
-                moves[i] = _rotors[i + 1].atNotch();
-                if (moves[i]) {
-                    moves[i + 1] = true;
+        advanceRotors();
+        c = _plugboard.wrap(c);
+        int base = cachedSubstitution();
+        int result;
+        if (base < 0) {
+            result = substitute(c);
+        } else {
+            int[] table = _cacheTable;
+            result = table[base + c];
+            if (result < 0) {
+                result = substitute(c);
+                table[base + c] = result;
+                if (_involution) {
+                    table[base + result] = c;
                 }
-            } else {
-                moves[i] = false;
             }
         }
-        for (int i = numRotors() - 1; i >= numRotors() - numPawls(); i -= 1) {
-            if (moves[i]) {
-                _rotors[i].advance();
+        if (_recorder != null) {
+            _recorder.record(result);
+        }
+        return result;
+    }
+
+    /** Step the rotors as for one keypress. */
+    private void advanceRotors() {
+        int size = _alphabet.size();
+        int last = _numRotors - 1;
+        boolean pushed = false;
+        for (int i = _numRotors - _pawls; i <= last; i += 1) {
+            boolean engaged = i < last && _rotating[i]
+                && _notches[size * (i + 1) + _positions[i + 1]];
+            if (_rotating[i] && (i == last || engaged || pushed)) {
+                int p = _positions[i] + 1;
+                _positions[i] = p == size ? 0 : p;
             }
+            pushed = engaged;
         }
+    }
+
+    /** Return the result of passing C through the plugboard, the rotors,
+     *  the reflector and back at the current rotor settings, without
+     *  moving any rotor. */
+    private int substitute(int c) {
+        int size = _alphabet.size();
+        int[] stack = _stack;
+        int[] positions = _positions;
         int result = _plugboard.permute(c);
-        for (int i = numRotors() - 1; i >= 0; i -= 1) {
-            result = _rotors[i].convertForward(result);
+        for (int i = _numRotors - 1; i >= 0; i -= 1) {
+            int p = positions[i];
+            result = stack[STACK_STRIDE * size * i + result + p] - p;
+            if (result < 0) {
+                result += size;
+            }
+        }
+        for (int i = 1; i < _numRotors; i += 1) {
+            int p = positions[i];
+            result = stack[STACK_STRIDE * size * i + 2 * size + result + p]
+                - p;
+            if (result < 0) {
+                result += size;
+            }
         }
-        for (int i = 1; i < numRotors(); i += 1) {
-            result = _rotors[i].convertBackward(result);
+        return _plugboard.permute(result);
+    }
+
+    /** Return the complete substitution the machine performs at its
+     *  current rotor settings (that is, the mapping that convert would
+     *  apply if the rotors did not step first). */
+    Permutation substitution() {
+        int[] map = new int[_alphabet.size()];
+        for (int i = 0; i < map.length; i += 1) {
+            map[i] = substitute(i);
         }
-        result = _plugboard.permute(result);
-        return result;
+        return new Permutation(map, _alphabet);
+    }
+
+    /** Return the offset in _cacheTable of the cached, possibly
+     *  partially filled, substitution table for the current rotor
+     *  settings (entries not yet computed are -1), claiming a cache slot
+     *  for it if necessary.  Returns -1 if caching is disabled. */
+    private int cachedSubstitution() {
+        if (_cacheKeys == null) {
+            return -1;
+        }
+        int size = _alphabet.size();
+        if (_cacheTable == null) {
+            _cacheTable = new int[_cacheKeys.length * size];
+        }
+        long key = 0;
+        for (int i = 1; i < _numRotors; i += 1) {
+            key = key * size + _positions[i];
+        }
+        int slot = (int) key & (_cacheKeys.length - 1);
+        int base = slot * size;
+        if (_cacheGenerations[slot] != _generation
+            || _cacheKeys[slot] != key) {
+            Arrays.fill(_cacheTable, base, base + size, -1);
+            _cacheKeys[slot] = key;
+            _cacheGenerations[slot] = _generation;
+        }
+        return base;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String result = "";
-        for (int i = 0; i < msg.length(); i += 1) {
-            int converted = convert(_alphabet.toInt(msg.charAt(i)));
-            char convertedChar = _alphabet.toChar(converted);
-            result += convertedChar;
+        if (!_alphabet.isBmp()) {
+            StringBuilder result = new StringBuilder(msg.length());
+            for (int i = 0; i < msg.length(); ) {
+                int cp = msg.codePointAt(i);
+                i += Character.charCount(cp);
+                result.appendCodePoint(_alphabet.toCodePoint(
+                    convert(_alphabet.indexOf(cp))));
+            }
+            return result.toString();
+        }
+        char[] chars = msg.toCharArray();
+        convert(chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /** Replace the LEN characters of BUF starting at OFF with their
+     *  encoding/decoding, updating the state of the rotors accordingly.
+     *  My alphabet must consist of single chars (see Alphabet.isBmp).
+     *  Rotor state carries over from one call to the next, so a message
+     *  may be converted in any number of pieces. */
+    void convert(char[] buf, int off, int len) {
+        for (int i = off; i < off + len; i += 1) {
+            buf[i] = _alphabet.toChar(convert(_alphabet.toInt(buf[i])));
         }
-        return result;
     }
 
     /** Common alphabet of my rotors. */
@@ -140,12 +448,73 @@ class Machine {
     /** Number of rotor pawls. */
     private int _pawls;
 
-    /** Collection of all available rotors. */
-    private ArrayList<Rotor> _allRotors;
+    /** Descriptions of all available rotors, by upper-case name. */
+    private LinkedHashMap<String, RotorSpec> _catalog;
+
+    /** The rotors compiled so far from _catalog, by upper-case name. */
+    private final HashMap<String, Rotor> _compiled = new HashMap<>();
 
     /** Array of rotors in the machine. */
     private Rotor[] _rotors;
 
+    /** Receives each character I produce, or null. */
+    private LetterStats.Recorder _recorder;
+
+    /** Entries of _stack per slot per alphabet character. */
+    private static final int STACK_STRIDE = 4;
+
+    /** Wirings of the rotors in my slots, laid out contiguously as
+     *  described at buildStack, for the conversion path. */
+    private int[] _stack;
+
+    /** _notches[size * I + P] is true iff the rotor in slot I has a notch
+     *  at setting P. */
+    private boolean[] _notches;
+
+    /** _rotating[I] is true iff the rotor in slot I has a ratchet. */
+    private boolean[] _rotating;
+
+    /** Current settings of the rotors in my slots, the reflector's first.
+     *  These, not the rotors' own settings, are advanced by convert; the
+     *  rotors are brought up to date by syncRotors. */
+    private int[] _positions;
+
     /** Plugboard containing connected pairs of letters. */
     private Permutation _plugboard;
+
+    /** Default memory budget, in bytes, of the substitution cache. */
+    static final long DEFAULT_CACHE_BUDGET = 4L << 20;
+
+    /** Per-entry cost of the cache beyond the table itself (key and
+     *  generation). */
+    private static final int CACHE_ENTRY_OVERHEAD = 12;
+
+    /** Upper bound on the number of cache entries. */
+    private static final long MAX_CACHE_ENTRIES = 1 << 24;
+
+    /** Memory budget of the cache, as last set by setCacheBudget. */
+    private long _cacheBudget;
+
+    /** Rotor-position key held in each cache slot.  The key is the
+     *  settings of rotors 1 .. numRotors()-1 read as a number in base
+     *  alphabet size, so consecutive positions of the fast rotor fall in
+     *  consecutive slots. */
+    private long[] _cacheKeys;
+
+    /** Substitution tables of all the cache slots, one after another,
+     *  allocated in full on first use so that filling slots allocates
+     *  nothing; null until then. */
+    private int[] _cacheTable;
+
+    /** Value of _generation when each cache slot was filled.  Slots from
+     *  an earlier generation are empty. */
+    private int[] _cacheGenerations;
+
+    /** Current cache generation; bumped to invalidate all slots. */
+    private int _generation;
+
+    /** True iff the current plugboard and reflector are involutions, so
+     *  that every substitution is too and each computed entry also fills
+     *  in its partner. */
+    private boolean _involution;
 }
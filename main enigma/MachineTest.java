@@ -4,8 +4,18 @@ import org.junit.Test;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import static enigma.TestUtils.*;
 
@@ -41,6 +51,10 @@ public class MachineTest {
 
     private String[] insertedRotors = {"B", "BETA", "III", "IV", "I"};
 
+    /** Most bytes that converting a long message may allocate once the
+     *  machine is set up and has converted a character. */
+    private static final long ALLOCATION_BUDGET = 16 << 10;
+
     private static Rotor[] rotors = {reflector, fixed, _moving1, _moving2,
         _moving3, _moving4, _moving5};
 
@@ -101,4 +115,344 @@ public class MachineTest {
         assertEquals("Wrong convert",
                 "FROM", _machine.convert("QVPQ"));
     }
+
+    @Test
+    public void testDoubleStepPositions() {
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.insertRotors(insertedRotors);
+        _machine.setRotors("AAIQ");
+        _machine.setPlugboard(new Permutation("", UPPER));
+        _machine.convert("XX");
+        assertArrayEquals("Wrong positions after double step",
+                new int[] {0, 0, 1, 10, 18}, _machine.positions());
+        assertEquals("Rotor setting not brought up to date",
+                10, _machine.getRotor()[3].setting());
+    }
+
+    @Test
+    public void testLazyCatalog() {
+        ArrayList<RotorSpec> catalog = new ArrayList<>();
+        catalog.add(new RotorSpec("B", "R",
+                "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) "
+                + "(RX) (SZ) (TV)", UPPER));
+        catalog.add(new RotorSpec("Beta", "N",
+                "(ALBEVFCYODJWUGNMQTZSKPR) (HIX)", UPPER));
+        catalog.add(new RotorSpec("I", "MQ",
+                "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)", UPPER));
+        catalog.add(new RotorSpec("III", "MV",
+                "(ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)", UPPER));
+        catalog.add(new RotorSpec("IV", "MJ",
+                "(AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)", UPPER));
+        catalog.add(new RotorSpec("BAD", "R", "(AB) (BC)", UPPER));
+        _machine = new Machine(UPPER, 5, 3, catalog);
+        assertFalse("Compiled before use", catalog.get(2).compiled());
+        _machine.insertRotors(insertedRotors);
+        assertTrue("Not compiled on use", catalog.get(2).compiled());
+        assertFalse("Unused rotor compiled", catalog.get(5).compiled());
+        _machine.setRotors("AXLE");
+        _machine.setPlugboard(new Permutation(
+                "(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        assertEquals("Wrong conversion.",
+                "QVPQ", _machine.convert("FROM"));
+    }
+
+    @Test
+    public void testMessageBatch() {
+        String[][] orders = {insertedRotors, {"B", "BETA", "I", "IV", "III"}};
+        Permutation[] plugboards = {
+            new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER),
+            new Permutation("", UPPER)
+        };
+        String[] msgs = {"FROMHIS", "SHOULDER", "HIAWATHA", "TOOK", "THE",
+                         "CAMERA", "OFROSEWOOD"};
+        createMachine(UPPER, 5, 3, _allRotors);
+        MessageBatch.Builder builder = new MessageBatch.Builder(5);
+        String[] expected = new String[msgs.length];
+        for (int i = 0; i < msgs.length; i += 1) {
+            _machine.insertRotors(orders[i % 2]);
+            _machine.setRotors("AXL" + (char) ('A' + i));
+            _machine.setPlugboard(plugboards[i % 3 == 0 ? 0 : 1]);
+            builder.add(orders[i % 2], _machine.positions(),
+                        plugboards[i % 3 == 0 ? 0 : 1], msgs[i]);
+            expected[i] = _machine.convert(msgs[i]);
+        }
+        MessageBatch batch = builder.build();
+        assertEquals("Wrong batch size", msgs.length, batch.size());
+        char[] result = batch.convert(_machine.copy());
+        for (int i = 0; i < msgs.length; i += 1) {
+            assertEquals("Wrong batch conversion of message " + i,
+                    expected[i], new String(result, batch.offset(i),
+                    batch.offset(i + 1) - batch.offset(i)));
+        }
+    }
+
+    @Test
+    public void testLetterStats() {
+        LetterStats stats = new LetterStats(UPPER);
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.setRecorder(stats.recorder());
+        _machine.insertRotors(insertedRotors);
+        _machine.setRotors("AXLE");
+        _machine.setPlugboard(new Permutation(
+                "(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        String result = _machine.convert("FROMHISSHOULDER");
+        Machine copy = _machine.copy();
+        copy.insertRotors(insertedRotors);
+        copy.setRotors("AXLE");
+        copy.setPlugboard(new Permutation("", UPPER));
+        result += copy.convert("HIAWATHA");
+        _machine.recorder().endMessage();
+        copy.recorder().endMessage();
+        long[] counts = stats.counts();
+        for (int i = 0; i < counts.length; i += 1) {
+            String letter = String.valueOf(UPPER.toChar(i));
+            assertEquals("Wrong count of " + letter,
+                    result.length() - result.replace(letter, "").length(),
+                    counts[i]);
+        }
+        assertEquals("Wrong message count", 2, stats.messages());
+        assertEquals("Wrong index of coincidence", 2.0 / 3,
+                LetterStats.indexOfCoincidence(new long[] {2, 2}, 4), 1e-9);
+        assertEquals("Wrong entropy", 1.0,
+                LetterStats.entropy(new long[] {2, 2}, 4), 1e-9);
+    }
+
+    @Test
+    public void testCachedConvertMatchesUncached() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.setCacheBudget(0);
+        _machine.insertRotors(insertedRotors);
+        _machine.setRotors("AXLE");
+        _machine.setPlugboard(new Permutation(
+                "(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        String expected = _machine.convert(msg);
+
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.insertRotors(insertedRotors);
+        for (int k = 0; k < 3; k += 1) {
+            _machine.setRotors("AXLE");
+            _machine.setPlugboard(new Permutation(
+                    "(HQ) (EX) (IP) (TR) (BY)", UPPER));
+            assertEquals("Wrong cached conversion on pass " + k,
+                    expected, _machine.convert(msg));
+        }
+        _machine.setRotors("AXLE");
+        _machine.setPlugboard(new Permutation("", UPPER));
+        assertTrue("Cache not invalidated by plugboard change",
+                !expected.equals(_machine.convert(msg)));
+    }
+
+    @Test
+    public void testSubstitutionIsInvolution() {
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.insertRotors(insertedRotors);
+        _machine.setRotors("AXLE");
+        _machine.setPlugboard(new Permutation(
+                "(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        int converted = _machine.convert(UPPER.toInt('F'));
+        _machine.setRotors("AXLF");
+        Permutation sub = _machine.substitution();
+        assertTrue("Machine substitution is not an involution",
+                sub.isInvolution());
+        assertEquals("Substitution disagrees with convert",
+                converted, sub.permute(UPPER.toInt('F')));
+    }
+
+    @Test
+    public void testValidator() {
+        createMachine(UPPER, 5, 3, _allRotors);
+        String input = "* B BETA III IV I AXLE (HQ) (EX)\n"
+            + "Hello world\n"
+            + "\n"
+            + "* B BETA III III I AXLE\n"
+            + "NO DIGITS 4U\n"
+            + "* B BETA III IV I AXL\n"
+            + "* B BETA III IV I AXLE (HQ) (QX)\n";
+        Validator validator = new Validator(_machine);
+        List<String> errors = validator.validate(
+            new BufferedReader(new StringReader(input)), 3);
+        assertEquals("Wrong error count", 4, validator.count());
+        assertEquals("Wrong number of errors described", 3, errors.size());
+        assertEquals("line 4: Repeating rotors.", errors.get(0));
+        assertEquals("line 5: character '4' (column 11) is not in the "
+                     + "alphabet", errors.get(1));
+        assertEquals("line 6: Incorrect setting length.", errors.get(2));
+        assertTrue("Valid input rejected",
+                   validator.validate(new BufferedReader(new StringReader(
+                       "\n* B BETA III IV I AXLE\nHI THERE\n")), 3)
+                   .isEmpty());
+        errors = validator.validate(new BufferedReader(new StringReader(
+            "* B BETA III IV I\nHI THERE\n")), 3);
+        assertEquals("Missing positions not reported",
+                     Arrays.asList("line 1: Incorrect setting length."),
+                     errors);
+    }
+
+    @Test
+    public void testConfigRegistry() throws IOException {
+        String text = "A-Z 3 1\n B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW)"
+            + " (IJ) (LO) (MP) (RX) (SZ) (TV)\n"
+            + " BETA N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+            + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n";
+        File one = File.createTempFile("enigma", ".conf");
+        File two = File.createTempFile("enigma", ".conf");
+        try {
+            Files.write(one.toPath(), text.getBytes());
+            Files.write(two.toPath(), (text + " II ME (FIXVYOMW) (CDKLHUP)"
+                                       + " (ESZ) (BJ) (GR) (NT) (A) (Q)\n")
+                        .getBytes());
+            ConfigRegistry registry = new ConfigRegistry();
+            ConfigRegistry.Config first = registry.get(one);
+            ConfigRegistry.Config second = registry.get(two);
+            assertTrue("Config not cached", first == registry.get(one));
+            assertEquals("Wrong number of parses", 2, registry.cached());
+            assertTrue("Rotor descriptions not shared",
+                       first.machine().catalog().get(2)
+                       == second.machine().catalog().get(2));
+
+            Machine old = first.machine();
+            Files.write(two.toPath(), text.getBytes());
+            two.setLastModified(two.lastModified() + 2000);
+            assertEquals("Wrong number of reloads", 1, registry.reload());
+            assertEquals("Equal content not shared", first.hash(),
+                         registry.get(two).hash());
+            assertEquals("Replaced parse not dropped", 1, registry.cached());
+            assertEquals("Old machine lost its catalog",
+                         3, old.catalog().size());
+
+            Files.write(one.toPath(), "A-Z 3 1\n B R (AE\n".getBytes());
+            one.setLastModified(one.lastModified() + 4000);
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            PrintStream stderr = System.err;
+            System.setErr(new PrintStream(errors, true));
+            try {
+                registry.reload();
+                registry.reload();
+            } finally {
+                System.setErr(stderr);
+            }
+            assertEquals("Bad config not reported once", 1,
+                         errors.toString().split("Error:", -1).length - 1);
+            assertTrue("Bad config replaced the old one",
+                       first == registry.get(one));
+        } finally {
+            one.delete();
+            two.delete();
+        }
+    }
+
+    @Test
+    public void testSteadyStateAllocation() {
+        if (!(ManagementFactory.getThreadMXBean()
+              instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()
+            || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.insertRotors(insertedRotors);
+        _machine.setRotors("AXLE");
+        _machine.setPlugboard(new Permutation(
+                "(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        char[] message = new char[1 << 20];
+        for (int i = 0; i < message.length; i += 1) {
+            message[i] = UPPER.toChar(i * 7 % UPPER.size());
+        }
+        _machine.convert(message, 0, 1);
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        _machine.convert(message, 1, message.length - 1);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertTrue("Converting 1M chars allocated " + allocated + " bytes",
+                   allocated < ALLOCATION_BUDGET);
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        for (int i = 0; i < 500; i += 1) {
+            assertEquals("Buckets not contiguous at " + i,
+                         LatencyHistogram.highestValue(i) + 1,
+                         LatencyHistogram.lowestValue(i + 1));
+        }
+        for (long value = 1; value > 0; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucket(value);
+            long low = LatencyHistogram.lowestValue(bucket);
+            long high = LatencyHistogram.highestValue(bucket);
+            assertTrue("Wrong bucket for " + value,
+                       low <= value && value <= high);
+            assertTrue("Bucket too wide for " + value,
+                       high - low <= low / 16);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("Empty percentile", 0, histogram.percentile(0.5));
+        for (long value = 1000; value >= 1; value -= 1) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+        assertEquals("Wrong count", 1001, histogram.count());
+        assertEquals("Wrong minimum", 0, histogram.percentile(0));
+        assertEquals("Exact values miscounted", 10,
+                     histogram.percentile(10.5 / 1001));
+        long median = histogram.percentile(0.5);
+        assertTrue("Wrong median " + median,
+                   median >= 500 && median <= 500 + 500 / 16);
+        long max = histogram.percentile(1.0);
+        assertTrue("Wrong maximum " + max,
+                   max >= 1000 && max <= 1000 + 1000 / 16);
+    }
+
+    @Test
+    public void testKeySpace() {
+        Machine template = new Machine(UPPER, 4, 2, _allRotors);
+        KeySpace space = new KeySpace(template);
+        long size = space.size();
+        assertEquals("Wrong key space size", 20 * 26 * 26 * 26, size);
+        assertEquals("* B BETA I II AAA", space.setting(0));
+        assertEquals("* B BETA V IV ZZZ", space.setting(size - 1));
+        assertEquals("Uneven split", size / 2,
+                     space.spliterator().trySplit().estimateSize());
+        assertEquals("Wrong parallel count", size,
+                     space.keys().parallel().count());
+        assertEquals("Keys missing or repeated", size * (size - 1) / 2,
+                     space.keys().parallel().sum());
+
+        KeySpace.Cursor cursor = space.cursor(template.copy(),
+                                             new Permutation("(AB)", UPPER));
+        Machine check = template.copy();
+        check.setPlugboard(new Permutation("(AB)", UPPER));
+        for (long key = 0; key < size; key += 997) {
+            String[] fields = space.setting(key).split(" ");
+            check.insertRotors(Arrays.copyOfRange(fields, 1, 5));
+            check.setRotors(fields[5]);
+            cursor.set(key);
+            assertEquals("Wrong setting " + key,
+                         check.convert("HELLOWORLD"),
+                         cursor.machine().convert("HELLOWORLD"));
+        }
+    }
+
+    @Test
+    public void testPassthrough() {
+        createMachine(UPPER, 5, 3, _allRotors);
+        _machine.insertRotors(insertedRotors);
+        _machine.setPlugboard(new Permutation("(YF) (ZH)", UPPER));
+        _machine.setRotors("AXLE");
+        String expected = _machine.convert("HELLOWORLDX");
+        _machine.setRotors("AXLE");
+        Passthrough passthrough = new Passthrough(UPPER);
+        assertEquals("Wrong passthrough conversion",
+                     expected.substring(0, 5) + ", "
+                     + expected.substring(5, 8) + "-"
+                     + expected.substring(8, 10) + "! 42\t",
+                     passthrough.convert(_machine, "Hello, wor-ld! 42\t"));
+        assertEquals("Rotors stepped by passed-through characters",
+                     expected.substring(10), _machine.convert("X"));
+    }
 }
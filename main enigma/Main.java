@@ -1,12 +1,24 @@
 package enigma;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
 
 import static enigma.EnigmaException.*;
 
@@ -23,10 +35,73 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  Arguments of the form --NAME or --NAME=VALUE are options and may
+     *  appear anywhere; they are not counted in ARGS.length above:
+     *    --pipeline  Read, encrypt and write on separate threads.
+     *    --plan=P    Run a single input as plan P: "sequential",
+     *                "pipelined" (as --pipeline), "parallel" (whole
+     *                messages encrypted on --threads threads) or "auto"
+     *                (the default), which picks one from a sample of the
+     *                input file and a short timing of the machine.  Auto
+     *                reads the standard input sequentially.  With
+     *                --stats, the choice is reported.
+     *    --stats     Report per-stage throughput on the standard error.
+     *    --batch     Treat ARGS[1] as a directory (all of whose .inp files
+     *                are processed) or as a manifest file listing one
+     *                input file per line, and ARGS[2], if present, as the
+     *                directory for the .out files (by default, each goes
+     *                beside its input).  Files are processed concurrently
+     *                and a failure in one does not affect the others.
+     *    --threads=N Use N worker threads in batch mode, to encrypt
+     *                messages in parallel, or to compress the output
+     *                (default: the number of processors).
+     *    --shards=N  Split the input at setting lines into N shards and
+     *                process them in N separate worker JVMs.
+     *    --retries=K Rerun a crashed shard worker at most K times
+     *                (default 2).
+     *    --profile   Time configuration, setup, encryption and output,
+     *                committing JFR events for each, and report counters
+     *                and latency percentiles on the standard error at
+     *                exit.  Not allowed with --shards, --follow or
+     *                --range, whose work is not timed.
+     *    --follow=S  Keep processing lines as they are appended to the
+     *                input file (ARGS[1], required), appending results to
+     *                the output, and keep the position reached in state
+     *                file S, so that a later run resumes from there.
+     *    --idle=N    In follow mode, stop after N seconds without new
+     *                input.
+     *    --index=F   Write a checkpoint index of the output to file F (see
+     *                Checkpoints), or with --range, read one.
+     *    --every=K   Take a checkpoint about every K characters (default
+     *                65536).
+     *    --range=S:E Treat the input file (ARGS[1], required) as output
+     *                written with --index and decrypt only its bytes S
+     *                (inclusive) to E (exclusive).
+     *    --validate  Check the whole input file first, reporting every
+     *                malformed setting line and character outside the
+     *                alphabet with its line number, and process nothing
+     *                if there are any.
+     *    --letters   Report the frequency of each output character, and
+     *                the index of coincidence and entropy of the output
+     *                overall and per message, on the standard error at
+     *                exit.
+     *    --passthrough
+     *                Copy the characters of message lines that are not in
+     *                the alphabet (once upper-cased), spaces included, to
+     *                the output unchanged, without stepping the rotors,
+     *                instead of rejecting them.  Converted lines keep
+     *                their layout rather than being regrouped in fives.
+     *                With --validate, only setting lines are checked. */
     public static void main(String... args) {
         try {
-            new Main(args).process();
+            Main main = new Main(args);
+            try {
+                main.process();
+            } finally {
+                main.close();
+            }
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
@@ -36,25 +111,84 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
-        if (args.length < 1 || args.length > 3) {
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                addOption(arg.substring(2));
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() < 1 || files.size() > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = files.get(0);
+        _config = getInput(_configName);
+
+        if (option("batch")) {
+            if (files.size() < 2) {
+                throw error("batch mode needs an input directory or manifest");
+            }
+            _batchInput = new File(files.get(1));
+            _batchOutput = files.size() > 2 ? new File(files.get(2)) : null;
+            return;
+        }
+
+        if (option("follow")) {
+            if (files.size() < 2 || _options.get("follow").isEmpty()) {
+                throw error("follow mode needs an input file and --follow="
+                            + "STATEFILE");
+            }
+            _inputName = files.get(1);
+            _outputName = files.size() > 2 ? files.get(2) : null;
+            return;
+        }
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (files.size() > 1) {
+            _inputName = files.get(1);
+            _inputReader = getReader(_inputName);
         } else {
-            _input = new Scanner(System.in);
+            _inputReader = new BufferedReader(new InputStreamReader(System.in));
         }
+        _input = new Scanner(_inputReader);
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        if (files.size() > 2) {
+            _output = getOutput(files.get(2));
         } else {
             _output = System.out;
         }
     }
 
+    /** Record the option described by OPTION, which has the form NAME or
+     *  NAME=VALUE. */
+    private void addOption(String option) {
+        int eq = option.indexOf('=');
+        String name = eq < 0 ? option : option.substring(0, eq);
+        if (!OPTIONS.contains(name)) {
+            throw error("unknown option --%s", name);
+        }
+        _options.put(name, eq < 0 ? "" : option.substring(eq + 1));
+    }
+
+    /** Return true iff option NAME was given. */
+    private boolean option(String name) {
+        return _options.containsKey(name);
+    }
+
+    /** Return the value of integer option NAME, or DEFAULTVALUE if it was
+     *  not given. */
+    private int intOption(String name, int defaultValue) {
+        if (!option(name)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(_options.get(name));
+        } catch (NumberFormatException excp) {
+            throw error("option --%s needs an integer value", name);
+        }
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -64,96 +198,416 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
+    /** Return a BufferedReader reading from the file named NAME, which
+     *  is decompressed (on a separate thread) if NAME ends in ".gz". */
+    private BufferedReader getReader(String name) {
+        try {
+            if (gzipped(name)) {
+                return new BufferedReader(new InputStreamReader(
+                    new ReadAheadInputStream(
+                        new GZIPInputStream(new FileInputStream(name),
+                                            GZIP_BLOCK),
+                        GZIP_BLOCK, READ_AHEAD_BLOCKS)));
+            }
+            return new BufferedReader(new FileReader(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a PrintStream writing to the file named NAME, which is
+     *  compressed (on --threads threads) if NAME ends in ".gz". */
     private PrintStream getOutput(String name) {
         try {
+            if (gzipped(name)) {
+                int threads = intOption("threads",
+                    Runtime.getRuntime().availableProcessors());
+                return new PrintStream(new ParallelGzipOutputStream(
+                    new FileOutputStream(name), GZIP_MEMBER,
+                    Math.max(1, threads)));
+            }
             return new PrintStream(new File(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Return a lower bound on the uncompressed size, in bytes, of the
+     *  input file named NAME: its length, or for a gzip file the larger
+     *  of that and the size recorded in its trailer (which is the size of
+     *  the last member only, modulo 2^32). */
+    private static long inputSize(String name) {
+        File file = new File(name);
+        long length = file.length();
+        if (!gzipped(name) || length < GZIP_TRAILER) {
+            return length;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(length - GZIP_TRAILER);
+            long recorded = 0;
+            for (int i = 0; i < GZIP_TRAILER; i += 1) {
+                recorded |= (long) in.read() << (8 * i);
+            }
+            return Math.max(length, recorded);
+        } catch (IOException excp) {
+            return length;
+        }
+    }
+
+    /** Return true iff the file named NAME is gzip-compressed. */
+    private static boolean gzipped(String name) {
+        return name.endsWith(".gz");
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
-        Machine enigma = readConfig();
-        while (_input.hasNext()) {
-            String setting = _input.nextLine();
+    void process() {
+        if (option("profile")) {
+            if (option("shards") || option("follow") || option("range")) {
+                throw error("--profile cannot be used with --shards, "
+                            + "--follow or --range");
+            }
+            _profiler = new Profiler();
+        }
+        try {
+            Profiler.PhaseEvent timer = begin(Profiler.CONFIG);
+            Machine enigma = readConfig();
+            end(timer, 0);
+            if (option("letters")) {
+                _letters = new LetterStats(_alphabet);
+                enigma.setRecorder(_letters.recorder());
+            }
+            if (option("validate")) {
+                validate(enigma);
+            }
+            if (option("batch")) {
+                processBatch(enigma);
+            } else if (option("follow")) {
+                new Follower(this, enigma, new File(_configName),
+                             new File(_inputName),
+                             _outputName == null ? null
+                             : new File(_outputName),
+                             new File(_options.get("follow")),
+                             intOption("idle", 0) * 1000L).run();
+            } else if (option("shards")) {
+                processSharded();
+            } else if (option("pipeline")) {
+                processPipelined(enigma);
+            } else if (option("range")) {
+                decryptRange(enigma);
+            } else if (option("index")) {
+                processIndexed(enigma);
+            } else {
+                processPlanned(enigma);
+            }
+            if (_letters != null) {
+                enigma.recorder().endMessage();
+                System.err.print(_letters.report());
+            }
+        } finally {
+            if (_profiler != null) {
+                System.err.print(_profiler.report());
+            }
+        }
+    }
+
+    /** Apply ENIGMA to the messages in INPUT, sending the results to
+     *  OUTPUT. */
+    void process(Machine enigma, Scanner input, PrintStream output) {
+        MessageLine text = new MessageLine(passthrough(enigma.alphabet()));
+        while (input.hasNext()) {
+            String setting = nextLine(input);
             while (setting.matches("\\s+") || setting.length() == 0) {
-                setting = _input.nextLine();
-                _output.println();
+                setting = nextLine(input);
+                output.println();
             }
+            Profiler.MessageEvent message = beginMessage(setting);
+            long messageChars = 0;
+            Profiler.PhaseEvent timer = begin(Profiler.SETUP);
             setUp(enigma, setting);
-            while (!_input.hasNext("\\*") && _input.hasNextLine()) {
-                if (_input.hasNext("\\s+")) {
-                    _input.nextLine();
-                    _output.println();
+            end(timer, 0);
+            if (_checkpoints != null) {
+                _checkpoints.message(setting, enigma);
+            }
+            while (!input.hasNext("\\*") && input.hasNextLine()) {
+                if (input.hasNext("\\s+")) {
+                    nextLine(input);
+                    output.println();
+                }
+                if (_checkpoints != null) {
+                    _checkpoints.beforeLine(enigma);
                 }
-                String result = enigma.convert(_input.nextLine()
-                        .replaceAll(" ", "").toUpperCase());
-                printMessageLine(result);
+                text.read(nextLine(input));
+                timer = begin(Profiler.ENCRYPT);
+                text.convert(enigma);
+                end(timer, text.length());
+                if (_checkpoints != null) {
+                    _checkpoints.afterLine(text.length());
+                }
+                timer = begin(Profiler.OUTPUT);
+                text.print(output);
+                end(timer, text.length());
+                messageChars += text.length();
+            }
+            endMessage(message, messageChars);
+        }
+        if (enigma.recorder() != null) {
+            enigma.recorder().endMessage();
+        }
+    }
+
+    /** Return the next line of INPUT, noting it for the checkpoint index
+     *  if there is one. */
+    private String nextLine(Scanner input) {
+        String line = input.nextLine();
+        if (_checkpoints != null) {
+            _checkpoints.read(line);
+        }
+        return line;
+    }
+
+    /** Apply ENIGMA to the messages in _input as for process, writing a
+     *  checkpoint index of the output to the file named by --index. */
+    private void processIndexed(Machine enigma) {
+        CountingOutputStream counter = new CountingOutputStream(_output, 0);
+        PrintStream output = new PrintStream(counter);
+        _checkpoints = new Checkpoints(new File(_options.get("index")),
+                                       intOption("every", CHECKPOINT_EVERY),
+                                       counter);
+        try {
+            process(enigma, _input, output);
+        } finally {
+            output.flush();
+            _checkpoints.close();
+        }
+    }
+
+    /** Decrypt the range of _input given by --range, using the checkpoint
+     *  index named by --index. */
+    private void decryptRange(Machine enigma) {
+        String[] range = _options.get("range").split(":");
+        if (!option("index") || _inputName == null || range.length != 2
+            || gzipped(_inputName)) {
+            throw error("--range=START:END needs --index and an "
+                        + "uncompressed input file");
+        }
+        long start, end;
+        try {
+            start = Long.parseLong(range[0]);
+            end = Long.parseLong(range[1]);
+        } catch (NumberFormatException excp) {
+            throw error("bad range %s", _options.get("range"));
+        }
+        Checkpoints.decrypt(this, enigma,
+                            Checkpoints.load(new File(_options.get("index"))),
+                            new File(_inputName), start, end, _output);
+    }
+
+    /** Return a timer for an occurrence of Profiler phase PHASE, or null
+     *  if profiling is off. */
+    Profiler.PhaseEvent begin(int phase) {
+        return _profiler == null ? null : _profiler.begin(phase);
+    }
+
+    /** Stop TIMER (if not null), which handled CHARS characters. */
+    void end(Profiler.PhaseEvent timer, long chars) {
+        if (timer != null) {
+            _profiler.end(timer, chars);
+        }
+    }
+
+    /** Return a timer for the message starting with SETTING, or null if
+     *  profiling is off. */
+    Profiler.MessageEvent beginMessage(String setting) {
+        return _profiler == null ? null : _profiler.beginMessage(setting);
+    }
+
+    /** Stop message timer MESSAGE (if not null), which converted CHARS
+     *  characters. */
+    void endMessage(Profiler.MessageEvent message, long chars) {
+        if (message != null) {
+            _profiler.endMessage(message, chars);
+        }
+    }
+
+    /** Apply ENIGMA to each of the files named by _batchInput, writing
+     *  the results to _batchOutput. */
+    private void processBatch(Machine enigma) {
+        Batch batch = new Batch(this, enigma, Batch.inputs(_batchInput),
+                _batchOutput, intOption("threads",
+                        Runtime.getRuntime().availableProcessors()));
+        int failed = batch.run();
+        System.err.print(batch.summary());
+        if (failed > 0) {
+            throw error("%d of %d files failed", failed, batch.size());
+        }
+    }
+
+    /** Apply the configuration in _config to the messages in _input as
+     *  for process, but in several worker processes. */
+    private void processSharded() {
+        long size = _inputName == null ? -1 : new File(_inputName).length();
+        List<String> workerOptions = new ArrayList<>();
+        if (option("passthrough")) {
+            workerOptions.add("--passthrough");
+        }
+        new Coordinator(new File(_configName), _inputReader, size, _output,
+                        intOption("shards", 1), intOption("retries", 2),
+                        workerOptions).run();
+    }
+
+    /** Check the whole input file for errors in the way ENIGMA would
+     *  process it, reporting each on the standard error, and throw an
+     *  EnigmaException if there were any. */
+    private void validate(Machine enigma) {
+        if (_inputName == null || option("batch") || option("follow")) {
+            throw error("--validate needs a single input file");
+        }
+        Validator validator = new Validator(enigma, option("passthrough"));
+        List<String> errors;
+        try (BufferedReader input = getReader(_inputName)) {
+            errors = validator.validate(input, MAX_REPORTED_ERRORS);
+        } catch (IOException excp) {
+            throw error("could not read %s", _inputName);
+        }
+        for (String msg : errors) {
+            System.err.printf("Error: %s%n", msg);
+        }
+        if (validator.count() > 0) {
+            throw error("%d error%s in input; nothing processed",
+                        validator.count(),
+                        validator.count() == 1 ? "" : "s");
+        }
+    }
+
+    /** Apply ENIGMA to the messages in _input as for process, in the way
+     *  chosen by --plan, or by a Planner if it is "auto" or absent. */
+    private void processPlanned(Machine enigma) {
+        String name = option("plan") ? _options.get("plan") : "auto";
+        int threads = intOption("threads",
+                                Runtime.getRuntime().availableProcessors());
+        int plan;
+        if (!name.equals("auto")) {
+            plan = Planner.parse(name);
+        } else if (_inputName == null) {
+            plan = Planner.SEQUENTIAL;
+        } else {
+            Planner planner = new Planner(this, enigma, _inputReader,
+                                          inputSize(_inputName), threads);
+            plan = planner.plan();
+            if (option("stats")) {
+                System.err.printf("plan: %s%n", planner.reason());
+            }
+        }
+        switch (plan) {
+        case Planner.PIPELINED:
+            processPipelined(enigma);
+            break;
+        case Planner.PARALLEL:
+            new ParallelMessages(this, enigma, _inputReader, _output,
+                                 threads).run();
+            break;
+        default:
+            process(enigma, _input, _output);
+            break;
+        }
+    }
+
+    /** Apply ENIGMA to the messages in _input as for process, but with
+     *  reading, encryption and output on separate threads. */
+    private void processPipelined(Machine enigma) {
+        Pipeline pipeline = new Pipeline(this, enigma, _inputReader,
+                new BufferedWriter(new OutputStreamWriter(_output)),
+                PIPELINE_CHUNKS);
+        try {
+            pipeline.run();
+        } finally {
+            if (option("stats")) {
+                System.err.print(pipeline.report());
+            }
+        }
+    }
+
+    /** Flush the output, closing it unless it is the standard output
+     *  (which finishes a compressed output). */
+    void close() {
+        if (_output != null) {
+            _output.flush();
+            if (_output != System.out) {
+                _output.close();
+            }
+            if (_output.checkError()) {
+                throw error("could not write output");
             }
         }
     }
 
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
-    private Machine readConfig() {
+    Machine readConfig() {
+        Machine result = readConfig(_config, null);
+        _alphabet = result.alphabet();
+        return result;
+    }
+
+    /** Return an Enigma machine configured from the contents of CONFIG.
+     *  Its alphabet and rotor descriptions come from SHARED, so that they
+     *  are shared with other configurations, unless SHARED is null. */
+    static Machine readConfig(Scanner config, ConfigRegistry shared) {
         try {
-            String alphabet = _config.next();
-            if (alphabet.length() == 3) {
-                _alphabet = new CharacterRange(alphabet.charAt(0),
-                        alphabet.charAt(2));
-            } else {
-                _alphabet = new Extra(alphabet);
-            }
-            if (!_config.hasNextInt()) {
+            String description = config.next();
+            Alphabet alphabet = shared == null ? alphabet(description)
+                : shared.alphabet(description);
+            if (!config.hasNextInt()) {
                 throw error("wrong configuration format");
             }
-            int numRotors = _config.nextInt();
-            if (!_config.hasNextInt()) {
+            int numRotors = config.nextInt();
+            if (!config.hasNextInt()) {
                 throw error("wrong configuration format");
             }
-            int numPawls = _config.nextInt();
-            while (_config.hasNext()) {
-                Rotor read = readRotor();
-                if (allRotors.contains(read)) {
-                    throw error("wrong configuration rotors");
-                } else {
-                    allRotors.add(read);
-                }
+            int numPawls = config.nextInt();
+            ArrayList<RotorSpec> allRotors = new ArrayList<>();
+            while (config.hasNext()) {
+                allRotors.add(readRotor(config, description, alphabet,
+                                        shared));
             }
-            return new Machine(_alphabet, numRotors, numPawls, allRotors);
+            return new Machine(alphabet, numRotors, numPawls, allRotors);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config.
+    /** Return the alphabet given by DESCRIPTION in a configuration file:
+     *  a range such as "A-Z", or the characters of the alphabet. */
+    static Alphabet alphabet(String description) {
+        if (description.length() == 3) {
+            return new CharacterRange(description.charAt(0),
+                                      description.charAt(2));
+        }
+        return new Extra(description);
+    }
+
+    /** Return the description of a rotor over ALPHABET (which is described
+     *  by DESCRIPTION), read from CONFIG, taking it from SHARED unless that
+     *  is null.  The rotor itself is compiled only if a setting selects
+     *  it.
      * E.g. I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S) */
-    private Rotor readRotor() {
+    private static RotorSpec readRotor(Scanner config, String description,
+                                       Alphabet alphabet,
+                                       ConfigRegistry shared) {
         try {
-            nameRotor = _config.next();
-            type = _config.next();
-            perm = "";
-            while (_config.hasNext("\\(.*\\)")) {
-                perm = perm.concat(_config.next());
-            }
-            if (type.charAt(0) == 'M') {
-                return new MovingRotor(nameRotor,
-                        new Permutation(perm, _alphabet), type.substring(1));
-            } else if (type.charAt(0) == 'N') {
-                return new FixedRotor(nameRotor,
-                        new Permutation(perm, _alphabet));
-            } else if (type.charAt(0) == 'R') {
-                return new Reflector(nameRotor,
-                        new Permutation(perm, _alphabet));
-            } else {
-                return null;
+            String nameRotor = config.next();
+            String type = config.next();
+            String perm = "";
+            while (config.hasNext("\\(.*\\)")) {
+                perm = perm.concat(config.next());
+            }
+            if (shared != null) {
+                return shared.rotor(description, nameRotor, type, perm);
             }
+            return new RotorSpec(nameRotor, type, perm, alphabet);
         } catch (NoSuchElementException excp) {
-            System.out.println(excp);
             throw error("bad rotor description");
         }
     }
@@ -161,13 +615,16 @@ public final class Main {
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment.
      *  E.g. * B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)*/
-    private void setUp(Machine M, String settings) {
+    void setUp(Machine M, String settings) {
+        if (M.recorder() != null) {
+            M.recorder().endMessage();
+        }
         if (settings.charAt(0) != '*') {
-            throw error("Wrong setting format");
+            throw inputError("Wrong setting format");
         }
         String[] setting = settings.split(" ");
         if (setting.length - 1 < M.numRotors()) {
-            throw new EnigmaException("Setting doesn't have enough arguments.");
+            throw inputError("Setting doesn't have enough arguments.");
         }
         String[] insertedRotors = new String[M.numRotors()];
         for (int i = 1; i < M.numRotors() + 1; i += 1) {
@@ -176,58 +633,117 @@ public final class Main {
         for (int i = 0; i < insertedRotors.length - 1; i += 1) {
             for (int j = 1; j < insertedRotors.length; j += 1) {
                 if (insertedRotors[i].equals(insertedRotors[j]) && i != j) {
-                    throw error("Repeating rotors.");
+                    throw inputError("Repeating rotors.");
                 }
             }
         }
 
         M.insertRotors(insertedRotors);
+        if (setting.length < M.numRotors() + 2) {
+            throw inputError("Incorrect setting length.");
+        }
         M.setRotors(setting[M.numRotors() + 1]);
         String pairs = "";
         if (setting.length <= M.numRotors() + 2) {
-            M.setPlugboard(new Permutation("", _alphabet));
+            M.setPlugboard(new Permutation("", M.alphabet()));
             return;
         }
         for (int i = M.numRotors() + 2; i < setting.length; i += 1) {
             pairs = pairs + setting[i] + " ";
         }
-        M.setPlugboard(new Permutation(pairs, _alphabet));
+        M.setPlugboard(new Permutation(pairs, M.alphabet()));
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        for (int i = 0; i < msg.length(); i += 5) {
-            if (msg.length() - i <= 5) {
-                _output.print(msg.substring(i));
-            } else {
-                _output.print(msg.substring(i, i + 5) + " ");
-            }
+    /** Return the converter of lines with characters outside ALPHABET
+     *  if --passthrough was given; otherwise null.  Converters are
+     *  shared: a new one is made only when the alphabet changes. */
+    Passthrough passthrough(Alphabet alphabet) {
+        if (!option("passthrough")) {
+            return null;
+        }
+        Passthrough result = _passthrough;
+        if (result == null || result.alphabet() != alphabet) {
+            result = new Passthrough(alphabet);
+            _passthrough = result;
         }
-        _output.println();
+        return result;
     }
 
+    /** Names of the recognized command-line options. */
+    private static final List<String> OPTIONS =
+        Arrays.asList("pipeline", "stats", "batch", "threads", "shards",
+                      "retries", "profile", "follow", "idle", "index",
+                      "every", "range", "letters", "plan",
+                      "validate", "passthrough");
+
+    /** Default number of characters between checkpoints. */
+    private static final int CHECKPOINT_EVERY = 1 << 16;
+
+    /** Greatest number of input errors described by --validate. */
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    /** Size of the blocks in which gzip input is read ahead. */
+    private static final int GZIP_BLOCK = 1 << 16;
+
+    /** Number of blocks of gzip input read ahead. */
+    private static final int READ_AHEAD_BLOCKS = 16;
+
+    /** Length of the uncompressed size at the end of a gzip file. */
+    private static final int GZIP_TRAILER = 4;
+
+    /** Uncompressed size of each gzip member written. */
+    private static final int GZIP_MEMBER = 1 << 20;
+
+    /** Number of reusable line chunks in a pipeline. */
+    private static final int PIPELINE_CHUNKS = 1024;
+
+    /** Records the checkpoint index if --index was given (and not
+     *  --range); otherwise null. */
+    private Checkpoints _checkpoints;
+
+    /** Collects output statistics if --letters was given; otherwise
+     *  null. */
+    private LetterStats _letters;
+
+    /** The converter last returned by passthrough, or null. */
+    private volatile Passthrough _passthrough;
+
+    /** Collects timings if --profile was given; otherwise null. */
+    private Profiler _profiler;
+
+    /** Options given on the command line, mapped to their values ("" for
+     *  options without one). */
+    private final HashMap<String, String> _options = new HashMap<>();
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Reader underlying _input. */
+    private BufferedReader _inputReader;
+
+    /** In batch mode, the input directory or manifest. */
+    private File _batchInput;
+
+    /** In batch mode, the output directory, or null to write each output
+     *  beside its input. */
+    private File _batchOutput;
+
     /** Source of machine configuration. */
     private Scanner _config;
 
-    /** File for encoded/decoded messages. */
-    private PrintStream _output;
-
-    /** A String containing each rotor's cycles. */
-    private String perm;
+    /** Name of the configuration file. */
+    private String _configName;
 
-    /** Name of rotor. */
-    private String nameRotor;
+    /** Name of the input file, or null for the standard input. */
+    private String _inputName;
 
-    /** Name of rotor. */
-    private String type;
+    /** In follow mode, the name of the output file, or null for the
+     *  standard output. */
+    private String _outputName;
 
-    /** An ArrayList containing all available rotors. */
-    private ArrayList<Rotor> allRotors = new ArrayList<>();
+    /** File for encoded/decoded messages. */
+    private PrintStream _output;
 }
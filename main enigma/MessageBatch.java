@@ -0,0 +1,270 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Many short messages, each with its own setting, held in columns so that
+ *  they can be converted together.  Message I is the text
+ *  text()[offset(I) .. offset(I + 1)); its rotors are rotorOrder(order(I)),
+ *  its plugboard is plugboard(plugboardIndex(I)), and its initial rotor
+ *  positions are the W entries of positions() starting at W * I, laid out
+ *  as by Machine.positions(), where W is the number of rotor slots.
+ *  Distinct rotor orders and plugboards are stored once.
+ *
+ *  convert visits the messages grouped by rotor order and plugboard, so
+ *  the rotors are inserted and the plugboard set once per group rather
+ *  than once per message, and the machine's substitution cache stays
+ *  valid across each group; only the rotor positions change from one
+ *  message to the next.
+ *  @author Jacqueline Angelina
+ */
+class MessageBatch {
+
+    /** Accumulates the messages of a MessageBatch. */
+    static class Builder {
+
+        /** A builder for messages for machines with SLOTS rotor slots. */
+        Builder(int slots) {
+            _slots = slots;
+        }
+
+        /** Add the message MSG, to be converted with the rotors named
+         *  ROTORS (the reflector first) at the settings POSITIONS (as
+         *  returned by Machine.positions()) and with PLUGBOARD. */
+        Builder add(String[] rotors, int[] positions, Permutation plugboard,
+                    CharSequence msg) {
+            if (rotors.length != _slots || positions.length != _slots) {
+                throw error("message setting has wrong number of rotors");
+            }
+            if (_count == _order.length) {
+                int capacity = 2 * _count + 1;
+                _order = Arrays.copyOf(_order, capacity);
+                _plugboard = Arrays.copyOf(_plugboard, capacity);
+                _positions = Arrays.copyOf(_positions, _slots * capacity);
+                _offsets = Arrays.copyOf(_offsets, capacity + 1);
+            }
+            _order[_count] = index(_orderIndex, _rotorOrders,
+                                   Arrays.asList(rotors.clone()));
+            _plugboard[_count] = index(_plugboardIndex, _plugboards,
+                                       plugboard);
+            System.arraycopy(positions, 0, _positions, _slots * _count,
+                             _slots);
+            _text.append(msg);
+            _count += 1;
+            _offsets[_count] = _text.length();
+            return this;
+        }
+
+        /** Return the batch of all messages added so far. */
+        MessageBatch build() {
+            char[] text = new char[_text.length()];
+            _text.getChars(0, text.length, text, 0);
+            ArrayList<String[]> orders = new ArrayList<>();
+            for (List<String> rotors : _rotorOrders) {
+                orders.add(rotors.toArray(new String[0]));
+            }
+            return new MessageBatch(_slots, orders, _plugboards,
+                                    Arrays.copyOf(_order, _count),
+                                    Arrays.copyOf(_plugboard, _count),
+                                    Arrays.copyOf(_positions,
+                                                  _slots * _count),
+                                    text, Arrays.copyOf(_offsets,
+                                                        _count + 1));
+        }
+
+        /** Return the index of VALUE in VALUES, adding it (and recording
+         *  its index in INDEX) if it is new. */
+        private static <T> int index(HashMap<T, Integer> index,
+                                     List<T> values, T value) {
+            Integer result = index.get(value);
+            if (result == null) {
+                result = values.size();
+                values.add(value);
+                index.put(value, result);
+            }
+            return result;
+        }
+
+        /** Number of rotor slots. */
+        private final int _slots;
+        /** Distinct rotor orders. */
+        private final ArrayList<List<String>> _rotorOrders = new ArrayList<>();
+        /** Index of each rotor order in _rotorOrders. */
+        private final HashMap<List<String>, Integer> _orderIndex =
+            new HashMap<>();
+        /** Distinct plugboards. */
+        private final ArrayList<Permutation> _plugboards = new ArrayList<>();
+        /** Index of each plugboard in _plugboards. */
+        private final HashMap<Permutation, Integer> _plugboardIndex =
+            new HashMap<>();
+        /** Number of messages added. */
+        private int _count;
+        /** Rotor order index of each message. */
+        private int[] _order = new int[0];
+        /** Plugboard index of each message. */
+        private int[] _plugboard = new int[0];
+        /** Initial positions of all messages. */
+        private int[] _positions = new int[0];
+        /** Start offset of each message in _text, and the end of the
+         *  last. */
+        private int[] _offsets = new int[1];
+        /** Text of all messages. */
+        private final StringBuilder _text = new StringBuilder();
+    }
+
+    /** A batch of messages for machines with SLOTS rotor slots, using the
+     *  rotor orders ROTORORDERS and plugboards PLUGBOARDS, where message I
+     *  uses ROTORORDERS[ORDER[I]] and PLUGBOARDS[PLUGBOARD[I]], starts at
+     *  the settings POSITIONS[SLOTS * I .. SLOTS * (I + 1)), and is
+     *  TEXT[OFFSETS[I] .. OFFSETS[I + 1]).  The arrays are not copied. */
+    MessageBatch(int slots, List<String[]> rotorOrders,
+                 List<Permutation> plugboards, int[] order, int[] plugboard,
+                 int[] positions, char[] text, int[] offsets) {
+        int n = order.length;
+        if (plugboard.length != n || offsets.length != n + 1
+            || positions.length != slots * n
+            || offsets[n] > text.length) {
+            throw error("inconsistent message batch");
+        }
+        _slots = slots;
+        _rotorOrders = new ArrayList<>(rotorOrders);
+        _plugboards = new ArrayList<>(plugboards);
+        _order = order;
+        _plugboard = plugboard;
+        _positions = positions;
+        _text = text;
+        _offsets = offsets;
+    }
+
+    /** Return the number of messages. */
+    int size() {
+        return _order.length;
+    }
+
+    /** Return the shared text buffer. */
+    char[] text() {
+        return _text;
+    }
+
+    /** Return the offset in text() of the start of message I; offset(size())
+     *  is the end of the last message. */
+    int offset(int i) {
+        return _offsets[i];
+    }
+
+    /** Return the index of the rotor order of message I. */
+    int order(int i) {
+        return _order[i];
+    }
+
+    /** Return the rotor order numbered K. */
+    String[] rotorOrder(int k) {
+        return _rotorOrders.get(k).clone();
+    }
+
+    /** Return the index of the plugboard of message I. */
+    int plugboardIndex(int i) {
+        return _plugboard[i];
+    }
+
+    /** Return the plugboard numbered K. */
+    Permutation plugboard(int k) {
+        return _plugboards.get(k);
+    }
+
+    /** Return the initial positions of all messages. */
+    int[] positions() {
+        return _positions;
+    }
+
+    /** Return the conversions of all my messages by MACHINE, which must have
+     *  my number of rotor slots, in one buffer laid out like text(): the
+     *  result for message I is at offset(I) .. offset(I + 1). */
+    char[] convert(Machine machine) {
+        if (machine.numRotors() != _slots) {
+            throw error("machine has wrong number of rotor slots");
+        }
+        char[] result = Arrays.copyOf(_text, _text.length);
+        int[] sequence = groupedOrder();
+        int lastOrder = -1, lastPlugboard = -1;
+        for (int i : sequence) {
+            if (_order[i] != lastOrder) {
+                machine.insertRotors(_rotorOrders.get(_order[i]));
+                lastOrder = _order[i];
+            }
+            if (_plugboard[i] != lastPlugboard) {
+                machine.setPlugboard(_plugboards.get(_plugboard[i]));
+                lastPlugboard = _plugboard[i];
+            }
+            machine.setPositions(_positions, _slots * i);
+            machine.convert(result, _offsets[i],
+                            _offsets[i + 1] - _offsets[i]);
+        }
+        return result;
+    }
+
+    /** Return the indices of my messages sorted by rotor order, then
+     *  plugboard, then position in the batch, by a two-pass counting
+     *  sort. */
+    private int[] groupedOrder() {
+        int n = _order.length;
+        int[] byPlugboard = countingSort(identityOrder(n), _plugboard,
+                                         _plugboards.size());
+        return countingSort(byPlugboard, _order, _rotorOrders.size());
+    }
+
+    /** Return 0 .. N-1. */
+    private static int[] identityOrder(int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /** Return the indices SEQUENCE stably sorted by KEYS[index], where
+     *  all keys are below LIMIT. */
+    private static int[] countingSort(int[] sequence, int[] keys, int limit) {
+        int[] starts = new int[limit + 1];
+        for (int i : sequence) {
+            starts[keys[i] + 1] += 1;
+        }
+        for (int k = 0; k < limit; k += 1) {
+            starts[k + 1] += starts[k];
+        }
+        int[] result = new int[sequence.length];
+        for (int i : sequence) {
+            result[starts[keys[i]]] = i;
+            starts[keys[i]] += 1;
+        }
+        return result;
+    }
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Distinct rotor orders. */
+    private final ArrayList<String[]> _rotorOrders;
+
+    /** Distinct plugboards. */
+    private final ArrayList<Permutation> _plugboards;
+
+    /** Rotor order index of each message. */
+    private final int[] _order;
+
+    /** Plugboard index of each message. */
+    private final int[] _plugboard;
+
+    /** Initial positions of each message, _slots entries apiece. */
+    private final int[] _positions;
+
+    /** Text of all messages. */
+    private final char[] _text;
+
+    /** Start offset of each message in _text, and the end of the last. */
+    private final int[] _offsets;
+}
@@ -0,0 +1,139 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/** A line of a message, held in buffers that are reused from line to
+ *  line, so that converting a message costs one String per line printed
+ *  rather than several per line and per group.  This is the one place
+ *  where a message line is cleaned up, converted and formatted: Main,
+ *  Pipeline and Follower all go through it, so they agree on blank
+ *  lines, upper-casing, alphabets outside the BMP and passthrough.
+ *  @author Jacqueline Angelina
+ */
+class MessageLine {
+
+    /** A line converted with PASSTHROUGH, or, if it is null, with
+     *  spaces removed and grouped in fives. */
+    MessageLine(Passthrough passthrough) {
+        _passthrough = passthrough;
+    }
+
+    /** Set me to LINE, with spaces removed and letters upper-cased
+     *  (or as it is, when passing through). */
+    void read(String line) {
+        ensureCapacity(line.length());
+        if (_passthrough != null) {
+            line.getChars(0, line.length(), _text, 0);
+            _length = line.length();
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char ch = line.charAt(i);
+            if (ch != ' ') {
+                _text[n] = Character.toUpperCase(ch);
+                n += 1;
+            }
+        }
+        _length = n;
+    }
+
+    /** Return my length in chars. */
+    int length() {
+        return _length;
+    }
+
+    /** Replace me with my conversion by ENIGMA: in place, char by char,
+     *  if its alphabet is in the BMP, and otherwise code point by code
+     *  point. */
+    void convert(Machine enigma) {
+        if (enigma.alphabet().isBmp()) {
+            if (_passthrough != null) {
+                _passthrough.convert(enigma, _text, 0, _length);
+            } else {
+                enigma.convert(_text, 0, _length);
+            }
+        } else {
+            String line = new String(_text, 0, _length);
+            String result = _passthrough != null
+                ? _passthrough.convert(enigma, line)
+                : enigma.convert(line);
+            ensureCapacity(result.length());
+            result.getChars(0, result.length(), _text, 0);
+            _length = result.length();
+        }
+    }
+
+    /** Print me on OUTPUT as a line in groups of five characters (except
+     *  that the last group may have fewer), or as I am when passing
+     *  through. */
+    void print(PrintStream output) {
+        if (_passthrough != null) {
+            output.println(new String(_text, 0, _length));
+        } else {
+            output.println(new String(_groups, 0, group()));
+        }
+    }
+
+    /** Write me on OUTPUT as print does, followed by a line separator. */
+    void write(Writer output) throws IOException {
+        if (_passthrough != null) {
+            output.write(_text, 0, _length);
+        } else {
+            output.write(_groups, 0, group());
+        }
+        output.write(LINE_SEPARATOR);
+    }
+
+    /** Fill _groups with my characters in groups of five, never splitting
+     *  a surrogate pair, and return the number of chars in it. */
+    private int group() {
+        int k = 0;
+        int n = 0;
+        for (int i = 0; i < _length; i += 1) {
+            if (k == GROUP && !Character.isLowSurrogate(_text[i])) {
+                _groups[n] = ' ';
+                n += 1;
+                k = 0;
+            }
+            _groups[n] = _text[i];
+            n += 1;
+            if (!Character.isHighSurrogate(_text[i])) {
+                k += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Make room for a line of LENGTH chars. */
+    private void ensureCapacity(int length) {
+        if (_text.length < length) {
+            _text = new char[Math.max(length, 2 * _text.length)];
+            _groups = new char[_text.length + _text.length / GROUP];
+        }
+    }
+
+    /** Number of characters in a printed group. */
+    private static final int GROUP = 5;
+
+    /** Initial capacity, in chars, of a line. */
+    private static final int INITIAL_LINE = 256;
+
+    /** Line terminator used by PrintStream.println. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Converts lines with characters outside the alphabet, or null if
+     *  they are errors. */
+    private final Passthrough _passthrough;
+
+    /** The line. */
+    private char[] _text = new char[INITIAL_LINE];
+
+    /** Number of chars in _text. */
+    private int _length;
+
+    /** The line with a space between groups. */
+    private char[] _groups = new char[INITIAL_LINE + INITIAL_LINE / GROUP];
+}
@@ -23,17 +23,19 @@ class MovingRotor extends Rotor {
         this.set(next);
     }
 
+    @Override
+    Rotor copy() {
+        return new MovingRotor(name(), permutation(), _notches);
+    }
+
     @Override
     boolean rotates() {
         return true;
     }
 
     @Override
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
-        return _notches.contains(Character.toString(alphabet().
-                toChar(this.setting())));
+    boolean notchAt(int posn) {
+        return _notches.indexOf(alphabet().toCodePoint(posn)) >= 0;
     }
 
     /** Notches of the moving rotor. */
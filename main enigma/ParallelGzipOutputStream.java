@@ -0,0 +1,176 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/** An OutputStream that gzip-compresses what is written to it on several
+ *  threads.  The data is cut into blocks of a fixed size, each block is
+ *  compressed as an independent gzip member by a pool of threads, and the
+ *  members are written to the underlying stream in order.  A
+ *  concatenation of gzip members is itself a valid gzip file, which gunzip
+ *  and GZIPInputStream read as the concatenation of the blocks.  Members
+ *  compress slightly less well than one deflate stream, since each starts
+ *  with an empty dictionary.
+ *
+ *  At most a fixed number of blocks are in flight, so memory use is
+ *  bounded; a writer that gets that far ahead waits for the oldest block.
+ *  flush() writes out the blocks already complete but keeps a partly
+ *  filled block, so that callers' flushes do not fragment the output
+ *  into tiny members; close() writes everything.
+ *  @author Jacqueline Angelina
+ */
+class ParallelGzipOutputStream extends OutputStream {
+
+    /** A stream writing the compression of its data to OUT in blocks of
+     *  BLOCKSIZE bytes compressed by THREADS threads. */
+    ParallelGzipOutputStream(OutputStream out, int blockSize, int threads) {
+        _out = out;
+        _blockSize = blockSize;
+        _maxPending = 2 * threads;
+        _pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "enigma-deflate");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        _block[_length] = (byte) b;
+        _length += 1;
+        if (_length == _blockSize) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, _blockSize - _length);
+            System.arraycopy(b, off, _block, _length, n);
+            _length += n;
+            off += n;
+            len -= n;
+            if (_length == _blockSize) {
+                submit();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        while (!_pending.isEmpty() && _pending.peek().isDone()) {
+            writeOldest();
+        }
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        try {
+            if (_length > 0) {
+                submit();
+            }
+            while (!_pending.isEmpty()) {
+                writeOldest();
+            }
+        } finally {
+            _closed = true;
+            _pool.shutdownNow();
+            _out.close();
+        }
+    }
+
+    /** Queue the current block for compression, first writing out the
+     *  oldest block if too many are in flight. */
+    private void submit() throws IOException {
+        while (_pending.size() >= _maxPending) {
+            writeOldest();
+        }
+        byte[] block = _block;
+        int length = _length;
+        _pending.add(_pool.submit(() -> compress(block, length)));
+        byte[] next = _spare.poll();
+        _block = next == null ? new byte[_blockSize] : next;
+        _length = 0;
+    }
+
+    /** Throw an IOException if I am closed. */
+    private void ensureOpen() throws IOException {
+        if (_closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    /** Return the gzip member holding the first LENGTH bytes of BLOCK,
+     *  which is then available for reuse. */
+    private byte[] compress(byte[] block, int length) throws IOException {
+        ByteArrayOutputStream member =
+            new ByteArrayOutputStream(length / 2 + MEMBER_OVERHEAD);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member,
+                                                          DEFLATE_BUFFER)) {
+            gzip.write(block, 0, length);
+        }
+        _spare.add(block);
+        return member.toByteArray();
+    }
+
+    /** Wait for the oldest block in flight and write its member. */
+    private void writeOldest() throws IOException {
+        try {
+            _out.write(_pending.remove().get());
+        } catch (InterruptedException excp) {
+            throw new IOException("interrupted");
+        } catch (ExecutionException excp) {
+            throw new IOException("compression failed", excp.getCause());
+        }
+    }
+
+    /** Initial allowance for a member's header and trailer. */
+    private static final int MEMBER_OVERHEAD = 64;
+
+    /** Size of each deflater's output buffer. */
+    private static final int DEFLATE_BUFFER = 1 << 16;
+
+    /** Destination of the compressed members. */
+    private final OutputStream _out;
+
+    /** Size of a block. */
+    private final int _blockSize;
+
+    /** Greatest number of blocks in flight. */
+    private final int _maxPending;
+
+    /** Threads compressing blocks. */
+    private final ExecutorService _pool;
+
+    /** Members being compressed, oldest first. */
+    private final ArrayDeque<Future<byte[]>> _pending = new ArrayDeque<>();
+
+    /** Blocks that have been compressed and may be refilled. */
+    private final ConcurrentLinkedQueue<byte[]> _spare =
+        new ConcurrentLinkedQueue<>();
+
+    /** The block being filled. */
+    private byte[] _block;
+
+    /** Number of bytes in _block. */
+    private int _length;
+
+    /** True once closed. */
+    private boolean _closed;
+}
@@ -0,0 +1,174 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Runs the messages of one input on several threads.  Since each
+ *  message starts with a setting line that fully configures the machine,
+ *  messages are independent: the input is cut at setting lines (keeping
+ *  the blank lines just before one with it, as Coordinator does) into
+ *  pieces of at least a minimum size, each piece is processed by Main on
+ *  a worker thread with that thread's own copy of the machine, and the
+ *  results are written in input order.  The output, including the output
+ *  that precedes an error, is the same as Main's on the whole input.  At
+ *  most a fixed number of pieces are in flight, so memory use does not
+ *  grow with the input.
+ *  @author Jacqueline Angelina
+ */
+class ParallelMessages {
+
+    /** The result of processing one piece. */
+    private static final class Result {
+        /** The output of a piece, whose processing ended with FAILURE, or
+         *  succeeded if FAILURE is null. */
+        Result(byte[] output, EnigmaException failure) {
+            this.output = output;
+            this.failure = failure;
+        }
+
+        /** What the piece printed. */
+        final byte[] output;
+        /** The error that ended the piece, or null. */
+        final EnigmaException failure;
+    }
+
+    /** A runner that uses MAIN to apply copies of TEMPLATE to the
+     *  messages read from INPUT on THREADS threads, writing the results
+     *  to OUTPUT. */
+    ParallelMessages(Main main, Machine template, BufferedReader input,
+                     PrintStream output, int threads) {
+        if (threads < 1) {
+            throw error("need at least one worker thread");
+        }
+        _main = main;
+        _template = template;
+        _input = input;
+        _output = output;
+        _threads = threads;
+    }
+
+    /** Process the whole input.  Throws the first error in the input
+     *  once the output before it has been written. */
+    void run() {
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(
+            () -> _template.copy());
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, r -> {
+            Thread thread = new Thread(r, "enigma-messages");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+        try {
+            StringBuilder piece = new StringBuilder();
+            StringBuilder blanks = new StringBuilder();
+            boolean started = false;
+            for (String line = _input.readLine(); line != null;
+                 line = _input.readLine()) {
+                if (Pipeline.isBlank(line)) {
+                    blanks.append(line).append('\n');
+                    continue;
+                }
+                if (started && piece.length() >= PIECE_CHARS
+                    && Pipeline.isSetting(line)) {
+                    submit(pool, pending, machines, piece.toString());
+                    piece.setLength(0);
+                }
+                piece.append(blanks).append(line).append('\n');
+                blanks.setLength(0);
+                started = true;
+            }
+            piece.append(blanks);
+            if (piece.length() > 0) {
+                submit(pool, pending, machines, piece.toString());
+            }
+            while (!pending.isEmpty()) {
+                writeOldest(pending);
+            }
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            _output.flush();
+        }
+    }
+
+    /** Queue TEXT to be processed on POOL with a machine from MACHINES,
+     *  adding it to PENDING, after writing out the oldest pending result
+     *  if too many are in flight. */
+    private void submit(ExecutorService pool,
+                        ArrayDeque<Future<Result>> pending,
+                        ThreadLocal<Machine> machines, String text) {
+        while (pending.size() >= 2 * _threads) {
+            writeOldest(pending);
+        }
+        pending.add(pool.submit(() -> process(machines.get(), text)));
+    }
+
+    /** Return the result of processing the messages in TEXT with
+     *  MACHINE. */
+    private Result process(Machine machine, String text) {
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(text.length() + text.length() / 4);
+        PrintStream out = new PrintStream(bytes);
+        EnigmaException failure = null;
+        try {
+            _main.process(machine, new Scanner(text), out);
+        } catch (EnigmaException excp) {
+            failure = excp;
+        }
+        out.flush();
+        return new Result(bytes.toByteArray(), failure);
+    }
+
+    /** Wait for the oldest of PENDING and write its output, throwing its
+     *  error, if any. */
+    private void writeOldest(ArrayDeque<Future<Result>> pending) {
+        Result result;
+        try {
+            result = pending.remove().get();
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw error("worker failed: %s", cause);
+        }
+        _output.write(result.output, 0, result.output.length);
+        if (result.failure != null) {
+            throw result.failure;
+        }
+    }
+
+    /** Least number of characters of input given to one task, so that
+     *  short messages are grouped. */
+    private static final int PIECE_CHARS = 1 << 16;
+
+    /** Processes each piece. */
+    private final Main _main;
+
+    /** Configured machine copied by each worker. */
+    private final Machine _template;
+
+    /** Source of input lines. */
+    private final BufferedReader _input;
+
+    /** Destination of the results. */
+    private final PrintStream _output;
+
+    /** Number of worker threads. */
+    private final int _threads;
+}
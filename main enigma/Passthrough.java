@@ -0,0 +1,97 @@
+package enigma;
+
+/** Converts mixed text, in which characters that are not in the alphabet
+ *  (once upper-cased) are copied unchanged and do not step the rotors,
+ *  instead of being errors.  A line is scanned once against a table,
+ *  built once per alphabet, of the chars that are in the alphabet; each
+ *  run of such chars is upper-cased and converted as a block by
+ *  Machine.convert(char[], int, int), and each run of other chars is
+ *  left where it is (converting in place) or appended as a slice
+ *  (converting to a new String) rather than char by char.  Instances are
+ *  immutable and may be shared between threads.
+ *  @author Jacqueline Angelina
+ */
+class Passthrough {
+
+    /** A converter for text encrypted with ALPHABET. */
+    Passthrough(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _inAlphabet = new boolean[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c += 1) {
+            char ch = (char) c;
+            _inAlphabet[c] = !Character.isSurrogate(ch)
+                && _alphabet.contains(Character.toUpperCase(ch));
+        }
+    }
+
+    /** Return the alphabet I convert. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Convert the LEN chars of BUF starting at OFF in place with
+     *  MACHINE, whose alphabet must be mine and consist of BMP
+     *  characters. */
+    void convert(Machine machine, char[] buf, int off, int len) {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            while (i < end && !_inAlphabet[buf[i]]) {
+                i += 1;
+            }
+            int start = i;
+            while (i < end && _inAlphabet[buf[i]]) {
+                buf[i] = Character.toUpperCase(buf[i]);
+                i += 1;
+            }
+            if (i > start) {
+                machine.convert(buf, start, i - start);
+            }
+        }
+    }
+
+    /** Return LINE with the characters in my alphabet converted by
+     *  MACHINE, whose alphabet must be mine, and the others unchanged. */
+    String convert(Machine machine, String line) {
+        if (_alphabet.isBmp()) {
+            char[] text = line.toCharArray();
+            convert(machine, text, 0, text.length);
+            return new String(text);
+        }
+        StringBuilder result = new StringBuilder(line.length());
+        StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < line.length()) {
+            int start = i;
+            while (i < line.length() && !inAlphabet(line.codePointAt(i))) {
+                i += Character.charCount(line.codePointAt(i));
+            }
+            result.append(line, start, i);
+            run.setLength(0);
+            while (i < line.length() && inAlphabet(line.codePointAt(i))) {
+                int cp = line.codePointAt(i);
+                run.appendCodePoint(Character.toUpperCase(cp));
+                i += Character.charCount(cp);
+            }
+            if (run.length() > 0) {
+                result.append(machine.convert(run.toString()));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return true iff code point CP, upper-cased, is in my alphabet. */
+    private boolean inAlphabet(int cp) {
+        if (Character.isBmpCodePoint(cp)) {
+            return _inAlphabet[cp];
+        }
+        return _alphabet.containsCodePoint(Character.toUpperCase(cp));
+    }
+
+    /** The alphabet converted. */
+    private final Alphabet _alphabet;
+
+    /** _inAlphabet[c] is true iff char c, upper-cased, is a character of
+     *  the alphabet (a lone surrogate never is). */
+    private final boolean[] _inAlphabet;
+}
@@ -1,11 +1,24 @@
 package enigma;
 
 import static enigma.EnigmaException.*;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.WeakHashMap;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The permutation is held as a dense
+ *  table (and its inverse), so that permute and invert are single array
+ *  lookups.  Permutations are never modified once constructed; the algebra
+ *  operations (compose, inverse, power) return new Permutations.  Tables
+ *  may be interned (see interned), as the tables of compiled rotors are:
+ *  all live interned Permutations with the same mapping share one pair
+ *  of arrays, however many rotors and catalogs describe it.  Tables are
+ *  matched by content alone, so equal mappings over different alphabets
+ *  of the same size share arrays too; each Permutation keeps its own
+ *  alphabet.  Permutations made per message, such as plugboards, are not
+ *  interned, so that making one never takes the pool's lock.
  *  @author Jacqueline Angelina
  */
 class Permutation {
@@ -17,17 +30,131 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
+        int[] map = new int[alphabet.size()];
+        int[] inverse = new int[alphabet.size()];
+        Arrays.fill(map, -1);
         String eliminate = cycles.replace("(", " ");
         eliminate = eliminate.replace(")", " ");
-        _cycles = new ArrayList<String>(Arrays.asList(eliminate.split("\\s+")));
+        for (String cycle : eliminate.split("\\s+")) {
+            addCycle(cycle, map, inverse);
+        }
+        for (int i = 0; i < map.length; i += 1) {
+            if (map[i] == -1) {
+                map[i] = i;
+                inverse[i] = i;
+            }
+        }
+        _tables = new Tables(map, inverse);
+        _map = map;
+        _inverse = inverse;
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. Go from "(abc) (d)" to {"abc", "d"}*/
-    private void addCycle(String cycle) {
+    /** A Permutation of ALPHABET that maps each index i to MAP[i].  MAP
+     *  must be a bijection on 0 .. ALPHABET.size()-1; it is copied. */
+    Permutation(int[] map, Alphabet alphabet) {
+        if (map.length != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        _alphabet = alphabet;
+        int[] inverse = new int[map.length];
+        Arrays.fill(inverse, -1);
+        for (int i = 0; i < map.length; i += 1) {
+            int v = map[i];
+            if (v < 0 || v >= map.length || inverse[v] != -1) {
+                throw error("permutation table is not a bijection");
+            }
+            inverse[v] = i;
+        }
+        _tables = new Tables(map.clone(), inverse);
+        _map = _tables.map;
+        _inverse = _tables.inverse;
+    }
+
+    /** A Permutation of ALPHABET with tables TABLES. */
+    private Permutation(Tables tables, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _tables = tables;
+        _map = tables.map;
+        _inverse = tables.inverse;
+    }
+
+    /** The forward and inverse tables of a permutation, compared by
+     *  content so that equal tables can be found in the intern pool. */
+    private static final class Tables {
+        /** Tables MAP and INVERSE. */
+        Tables(int[] map, int[] inverse) {
+            this.map = map;
+            this.inverse = inverse;
+            this.hash = Arrays.hashCode(map);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Tables && hash == ((Tables) obj).hash
+                && Arrays.equals(map, ((Tables) obj).map);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /** Forward table. */
+        final int[] map;
+        /** Inverse table. */
+        final int[] inverse;
+        /** Hash of map. */
+        final int hash;
+    }
+
+    /** Return a permutation equal to me whose tables are the canonical
+     *  ones for my mapping (mine become canonical if there are none
+     *  yet). */
+    Permutation interned() {
+        synchronized (POOL) {
+            WeakReference<Tables> ref = POOL.get(_tables);
+            Tables canonical = ref == null ? null : ref.get();
+            if (canonical == null) {
+                POOL.put(_tables, new WeakReference<>(_tables));
+                return this;
+            }
+            return canonical == _tables ? this
+                : new Permutation(canonical, _alphabet);
+        }
+    }
+
+    /** Return true iff I share my tables with OTHER. */
+    boolean sharesTables(Permutation other) {
+        return _tables == other._tables;
+    }
+
+    /** Return the identity permutation on ALPHABET. */
+    static Permutation identity(Alphabet alphabet) {
+        int[] map = new int[alphabet.size()];
+        for (int i = 0; i < map.length; i += 1) {
+            map[i] = i;
+        }
+        return new Permutation(map, alphabet);
+    }
+
+    /** Add the cycle c0->c1->...->cm->c0 to the tables MAP and INVERSE,
+     *  where CYCLE is c0c1...cm. Go from "(abc) (d)" to {"abc", "d"}*/
+    private void addCycle(String cycle, int[] map, int[] inverse) {
         String cycle2 = cycle.replace("(", "");
         cycle2 = cycle2.replace(")", "");
-        _cycles.add(cycle2);
+        int[] points = cycle2.codePoints().toArray();
+        int n = points.length;
+        for (int j = 0; j < n; j += 1) {
+            int from = _alphabet.indexOf(points[j]);
+            int to = _alphabet.indexOf(points[(j + 1) % n]);
+            if (map[from] != -1) {
+                throw inputError("character '%s' appears in more than one "
+                                 + "cycle",
+                                 new String(Character.toChars(points[j])));
+            }
+            map[from] = to;
+            inverse[to] = from;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -41,50 +168,19 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _map.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int contact = wrap(p);
-        char start = _alphabet.toChar(contact);
-        char end = _alphabet.toChar(0);
-        for (int i = 0; i < _cycles.size(); i += 1) {
-            for (int j = 0; j < _cycles.get(i).length(); j += 1) {
-                if (_cycles.get(i).charAt(j) == start) {
-                    if (j != _cycles.get(i).length() - 1) {
-                        end = _cycles.get(i).charAt(j + 1);
-                    } else {
-                        end = _cycles.get(i).charAt(0);
-                    }
-                    return _alphabet.toInt(end);
-                }
-            }
-        }
-        return contact;
+        return _map[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int contact = wrap(c);
-        char start = _alphabet.toChar(contact);
-        char end = _alphabet.toChar(0);
-        for (int i = 0; i < _cycles.size(); i += 1) {
-            for (int j = 0; j < _cycles.get(i).length(); j += 1) {
-                if (_cycles.get(i).charAt(j) == start) {
-                    if (j != 0) {
-                        end = _cycles.get(i).charAt(j - 1);
-                    } else {
-                        end = _cycles.get(i).charAt(_cycles.
-                                get(i).length() - 1);
-                    }
-                    return _alphabet.toInt(end);
-                }
-            }
-        }
-        return contact;
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -111,16 +207,160 @@ class Permutation {
      *  permutation for which no value maps to itself). */
     boolean derangement() {
         for (int i = 0; i < _alphabet.size(); i += 1) {
-            if (permute(_alphabet.toChar(i)) != _alphabet.toChar(i)) {
+            if (permute(i) != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the permutation that applies me first and then NEXT, i.e.
+     *  the mapping p -> NEXT.permute(permute(p)). */
+    Permutation compose(Permutation next) {
+        if (next.size() != size()) {
+            throw error("cannot compose permutations of different sizes");
+        }
+        int[] map = new int[size()];
+        for (int i = 0; i < map.length; i += 1) {
+            map[i] = next._map[_map[i]];
+        }
+        return new Permutation(map, _alphabet);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return new Permutation(_inverse, _alphabet);
+    }
+
+    /** Return me applied K times (K may be negative or zero).  Each cycle
+     *  of length L is rotated by K modulo L, so the cost is linear in
+     *  size() regardless of K. */
+    Permutation power(int k) {
+        int[] map = new int[size()];
+        for (int[] cycle : cycles()) {
+            int len = cycle.length;
+            int shift = ((k % len) + len) % len;
+            for (int j = 0; j < len; j += 1) {
+                map[cycle[j]] = cycle[(j + shift) % len];
+            }
+        }
+        return new Permutation(map, _alphabet);
+    }
+
+    /** Return my decomposition into disjoint cycles, including fixed
+     *  points as cycles of length 1.  Each cycle starts at its smallest
+     *  element and cycles are listed in order of those elements. */
+    List<int[]> cycles() {
+        List<int[]> result = new ArrayList<>();
+        boolean[] seen = new boolean[size()];
+        int[] buffer = new int[size()];
+        for (int start = 0; start < size(); start += 1) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int p = start; !seen[p]; p = _map[p]) {
+                seen[p] = true;
+                buffer[len] = p;
+                len += 1;
+            }
+            result.add(Arrays.copyOf(buffer, len));
+        }
+        return result;
+    }
+
+    /** Return the lengths of my cycles (fixed points included) in
+     *  non-increasing order.  Two permutations are conjugate iff they have
+     *  the same cycle type. */
+    int[] cycleType() {
+        List<int[]> cycles = cycles();
+        int[] result = new int[cycles.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = cycles.get(i).length;
+        }
+        Arrays.sort(result);
+        for (int i = 0, j = result.length - 1; i < j; i += 1, j -= 1) {
+            int tmp = result[i];
+            result[i] = result[j];
+            result[j] = tmp;
+        }
+        return result;
+    }
+
+    /** Return true iff every index maps to itself. */
+    boolean isIdentity() {
+        for (int i = 0; i < _map.length; i += 1) {
+            if (_map[i] != i) {
                 return false;
             }
         }
         return true;
     }
 
+    /** Return true iff I am my own inverse (all cycles have length at
+     *  most 2). */
+    boolean isInvolution() {
+        for (int i = 0; i < _map.length; i += 1) {
+            if (_map[_map[i]] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a copy of my forward table: entry i is permute(i). */
+    int[] toArray() {
+        return _map.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Permutation)) {
+            return false;
+        }
+        return _tables == ((Permutation) obj)._tables
+            || _tables.equals(((Permutation) obj)._tables);
+    }
+
+    @Override
+    public int hashCode() {
+        return _tables.hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int[] cycle : cycles()) {
+            if (cycle.length == 1) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append('(');
+            for (int p : cycle) {
+                result.appendCodePoint(_alphabet.toCodePoint(p));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** An array list of strings, where each string is a cycle. */
-    private ArrayList<String>  _cycles;
+    /** Canonical tables of every live interned Permutation, each mapped
+     *  to a weak reference to itself so that tables no longer used by any
+     *  Permutation can be collected. */
+    private static final WeakHashMap<Tables, WeakReference<Tables>> POOL =
+        new WeakHashMap<>();
+
+    /** My interned tables, whose arrays are _map and _inverse. */
+    private final Tables _tables;
+
+    /** Forward table: _map[i] is the image of index i. */
+    private final int[] _map;
+
+    /** Inverse table: _inverse[_map[i]] == i. */
+    private final int[] _inverse;
 }
@@ -51,4 +51,98 @@ public class PermutationTest {
         checkPerm("identity", UPPER_STRING, UPPER_STRING);
     }
 
+    @Test
+    public void checkNavalTransforms() {
+        for (String name : NAVALA_MAP.keySet()) {
+            perm = new Permutation(NAVALA.get(name), UPPER);
+            checkPerm(name, UPPER_STRING, NAVALA_MAP.get(name));
+        }
+    }
+
+    @Test
+    public void checkComposeAndInverse() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        Permutation q = new Permutation(NAVALA.get("II"), UPPER);
+        Permutation pq = p.compose(q);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(msg("compose", "wrong image of %d", i),
+                         q.permute(p.permute(i)), pq.permute(i));
+        }
+        assertTrue("p * p^-1 is not identity",
+                   p.compose(p.inverse()).isIdentity());
+        assertTrue("p^-1 * p is not identity",
+                   p.inverse().compose(p).isIdentity());
+    }
+
+    @Test
+    public void checkPower() {
+        Permutation p = new Permutation(NAVALA.get("III"), UPPER);
+        Permutation repeated = Permutation.identity(UPPER);
+        for (int k = 0; k <= 20; k += 1) {
+            Permutation powered = p.power(k);
+            for (int i = 0; i < UPPER.size(); i += 1) {
+                assertEquals(msg("power", "p^%d of %d", k, i),
+                             repeated.permute(i), powered.permute(i));
+            }
+            repeated = repeated.compose(p);
+        }
+        Permutation back = p.power(-1);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(msg("power", "p^-1 of %d", i),
+                         p.invert(i), back.permute(i));
+        }
+    }
+
+    @Test
+    public void checkCycleType() {
+        perm = new Permutation(NAVALA.get("I"), UPPER);
+        assertArrayEquals("wrong cycle type of I",
+                          new int[] {10, 4, 4, 3, 2, 2, 1}, perm.cycleType());
+        perm = new Permutation(NAVALA.get("B"), UPPER);
+        assertTrue("B is not an involution", perm.isInvolution());
+        assertFalse("B is the identity", perm.isIdentity());
+        assertFalse("I is an involution",
+                    new Permutation(NAVALA.get("I"), UPPER).isInvolution());
+        assertEquals("wrong cycle notation",
+                     "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) "
+                     + "(RX) (SZ) (TV)", perm.toString());
+    }
+
+    @Test
+    public void checkCodePointAlphabet() {
+        StringBuilder chars = new StringBuilder("ABC");
+        for (int cp = 0x4E00; cp < 0x4E00 + 2000; cp += 1) {
+            chars.appendCodePoint(cp);
+        }
+        chars.appendCodePoint(0x1D538).appendCodePoint(0x1F600);
+        Alphabet alpha = new CodePointAlphabet(chars.toString());
+        assertEquals("wrong size", 2005, alpha.size());
+        assertFalse("alphabet is all BMP", alpha.isBmp());
+        for (int i = 0; i < alpha.size(); i += 1) {
+            assertEquals("wrong index", i,
+                         alpha.indexOf(alpha.toCodePoint(i)));
+        }
+        assertFalse("contains D", alpha.containsCodePoint('D'));
+        assertFalse("contains U+1F601", alpha.containsCodePoint(0x1F601));
+        String cycles = "(A\ud835\udd38\u4e00) (B\ud83d\ude00)";
+        perm = new Permutation(cycles, alpha);
+        assertEquals("wrong image of A", 2003, perm.permute(0));
+        assertEquals("wrong image of U+1F600", 1, perm.permute(2004));
+        assertEquals("wrong cycle notation", cycles, perm.toString());
+    }
+
+    @Test
+    public void checkInterning() {
+        Permutation p = new Permutation("(AB) (CDE)", UPPER).interned();
+        Permutation q = new Permutation("(ECD) (BA)", UPPER).interned();
+        Permutation r = p.power(7).interned();
+        assertTrue("equal permutations do not share tables",
+                   p.sharesTables(q) && p.sharesTables(r));
+        assertEquals("interned permutations differ", p, r);
+        assertFalse("different permutations share tables",
+                    p.sharesTables(p.inverse().interned()));
+        assertFalse("plain permutation interned",
+                    p.sharesTables(new Permutation("(AB) (CDE)", UPPER)));
+    }
+
 }
@@ -0,0 +1,412 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.EnigmaException.*;
+
+/** Runs an input of settings and messages through a Machine as three
+ *  concurrent stages: a reader that splits the input into lines and
+ *  cleans up message lines, an encryption stage that sets up the machine
+ *  and converts message lines, and a writer that formats the results.
+ *  Message lines are handled by MessageLine, as in Main.  The stages
+ *  pass a fixed pool of reusable chunks around through bounded
+ *  RingBuffers, so memory use does not depend on the size of the input.
+ *  The output is exactly what Main produces when it processes the same
+ *  input sequentially.
+ *  @author Jacqueline Angelina
+ */
+class Pipeline {
+
+    /** A pipeline that configures and runs MACHINE over the lines of INPUT
+     *  and writes the results to OUTPUT, using MAIN to interpret setting
+     *  lines and CHUNKS reusable chunks. */
+    Pipeline(Main main, Machine machine, BufferedReader input, Writer output,
+             int chunks) {
+        _main = main;
+        _machine = machine;
+        Passthrough passthrough = main.passthrough(machine.alphabet());
+        _input = input;
+        _output = output;
+        _free = new RingBuffer<>(chunks);
+        _toEncrypt = new RingBuffer<>(chunks);
+        _toWrite = new RingBuffer<>(chunks);
+        for (int i = 0; i < _free.capacity(); i += 1) {
+            try {
+                _free.put(new Chunk(passthrough));
+            } catch (InterruptedException excp) {
+                throw new AssertionError("empty ring cannot block");
+            }
+        }
+    }
+
+    /** Run all three stages to completion.  The output is flushed even if
+     *  a stage fails; the first failure is then rethrown. */
+    void run() {
+        Thread reader = new Thread(this::readStage, "enigma-reader");
+        Thread encryptor = new Thread(this::encryptStage, "enigma-encrypt");
+        Thread writer = new Thread(this::writeStage, "enigma-writer");
+        _stages = new Thread[] { reader, encryptor, writer };
+        reader.start();
+        encryptor.start();
+        writer.start();
+        try {
+            reader.join();
+            encryptor.join();
+            writer.join();
+        } catch (InterruptedException excp) {
+            reader.interrupt();
+            encryptor.interrupt();
+            writer.interrupt();
+            throw error("interrupted");
+        }
+        Throwable failure = _failure.get();
+        if (failure instanceof EnigmaException) {
+            throw (EnigmaException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /** Return a summary of the work done and time spent by each stage. */
+    String report() {
+        return _readCounter + "\n" + _encryptCounter + "\n"
+            + _writeCounter + "\n";
+    }
+
+    /** The reader stage: classify each input line and pass it on. */
+    private void readStage() {
+        try {
+            try {
+                String line;
+                while ((line = _input.readLine()) != null) {
+                    long start = System.nanoTime();
+                    if (isBlank(line)) {
+                        _blanks.add(line);
+                        continue;
+                    }
+                    boolean setting = !_started || isSetting(line);
+                    flushBlanks(setting ? Chunk.GAP : Chunk.MESSAGE);
+                    emit(setting ? Chunk.SETTING : Chunk.MESSAGE, line);
+                    _started = true;
+                    _readCounter.busy(System.nanoTime() - start);
+                }
+                if (_started) {
+                    flushBlanks(Chunk.MESSAGE);
+                }
+            } catch (IOException excp) {
+                fail(error("could not read input"), 0);
+            }
+            emit(Chunk.END, "");
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Pass on the blank lines held back by the reader as chunks of type
+     *  KIND.  Blank lines just before a setting line are gaps between
+     *  messages (and are not converted); others are empty message
+     *  lines. */
+    private void flushBlanks(int kind) throws InterruptedException {
+        for (String blank : _blanks) {
+            emit(kind, blank);
+        }
+        _blanks.clear();
+    }
+
+    /** Fill a free chunk with KIND and LINE and send it to the encryption
+     *  stage. */
+    private void emit(int kind, String line) throws InterruptedException {
+        Chunk chunk = timedTake(_free, _readCounter);
+        chunk.kind = kind;
+        chunk.set(line);
+        _readCounter.count(chunk.length());
+        timedPut(_toEncrypt, chunk, _readCounter);
+    }
+
+    /** The encryption stage: apply setting lines to the machine and
+     *  convert message lines in place. */
+    private void encryptStage() {
+        try {
+            while (true) {
+                Chunk chunk = timedTake(_toEncrypt, _encryptCounter);
+                long start = System.nanoTime();
+                if (chunk.kind != Chunk.END && _failure.get() == null) {
+                    try {
+                        encrypt(chunk);
+                    } catch (RuntimeException excp) {
+                        fail(excp, 1);
+                        chunk.kind = Chunk.END;
+                    }
+                }
+                if (chunk.kind == Chunk.END) {
+                    endMessage();
+                }
+                _encryptCounter.count(chunk.length());
+                _encryptCounter.busy(System.nanoTime() - start);
+                timedPut(_toWrite, chunk, _encryptCounter);
+                if (chunk.kind == Chunk.END) {
+                    return;
+                }
+            }
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Apply CHUNK to the machine: set it up if CHUNK is a setting line,
+     *  or convert it if it is a message line, timing either as Main does
+     *  when profiling. */
+    private void encrypt(Chunk chunk) {
+        if (chunk.kind == Chunk.SETTING) {
+            endMessage();
+            _message = _main.beginMessage(chunk.line);
+            Profiler.PhaseEvent timer = _main.begin(Profiler.SETUP);
+            _main.setUp(_machine, chunk.line);
+            _main.end(timer, 0);
+        } else if (chunk.kind == Chunk.MESSAGE) {
+            Profiler.PhaseEvent timer = _main.begin(Profiler.ENCRYPT);
+            chunk.message.convert(_machine);
+            _main.end(timer, chunk.message.length());
+            _messageChars += chunk.message.length();
+        }
+    }
+
+    /** Finish timing the current message, if any. */
+    private void endMessage() {
+        _main.endMessage(_message, _messageChars);
+        _message = null;
+        _messageChars = 0;
+    }
+
+    /** The writer stage: format converted lines in groups of five. */
+    private void writeStage() {
+        try {
+            try {
+                while (true) {
+                    Chunk chunk = timedTake(_toWrite, _writeCounter);
+                    long start = System.nanoTime();
+                    int kind = chunk.kind;
+                    if (kind == Chunk.MESSAGE) {
+                        Profiler.PhaseEvent timer =
+                            _main.begin(Profiler.OUTPUT);
+                        chunk.message.write(_output);
+                        _main.end(timer, chunk.message.length());
+                    } else if (kind == Chunk.GAP) {
+                        _output.write(LINE_SEPARATOR);
+                    }
+                    _writeCounter.count(chunk.length());
+                    _writeCounter.busy(System.nanoTime() - start);
+                    timedPut(_free, chunk, _writeCounter);
+                    if (kind == Chunk.END) {
+                        break;
+                    }
+                }
+            } finally {
+                _output.flush();
+            }
+        } catch (IOException excp) {
+            fail(error("could not write output"), 2);
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Record EXCP as the failure of the pipeline (unless an earlier one
+     *  was recorded) and interrupt the stages before stage number STAGE,
+     *  which may be waiting to hand it work that will never be taken. */
+    private void fail(Throwable excp, int stage) {
+        _failure.compareAndSet(null, excp);
+        for (int i = 0; i < stage; i += 1) {
+            _stages[i].interrupt();
+        }
+    }
+
+    /** Take the next chunk from RING, charging any wait to COUNTER. */
+    private static Chunk timedTake(RingBuffer<Chunk> ring, Counter counter)
+        throws InterruptedException {
+        long start = System.nanoTime();
+        Chunk chunk = ring.take();
+        counter.waited(System.nanoTime() - start);
+        return chunk;
+    }
+
+    /** Put CHUNK on RING, charging any wait to COUNTER. */
+    private static void timedPut(RingBuffer<Chunk> ring, Chunk chunk,
+                                 Counter counter)
+        throws InterruptedException {
+        long start = System.nanoTime();
+        ring.put(chunk);
+        counter.waited(System.nanoTime() - start);
+    }
+
+    /** Return true iff LINE contains only whitespace. */
+    static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i += 1) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the first whitespace-delimited token of LINE is
+     *  "*", which is how Main recognizes the start of a new message. */
+    static boolean isSetting(String line) {
+        int i;
+        for (i = 0; i < line.length(); i += 1) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                break;
+            }
+        }
+        return i < line.length() && line.charAt(i) == '*'
+            && (i + 1 == line.length()
+                || Character.isWhitespace(line.charAt(i + 1)));
+    }
+
+    /** A reusable line of text passed between the stages. */
+    private static final class Chunk {
+        /** Kind of a chunk holding blank lines between messages. */
+        static final int GAP = 0;
+        /** Kind of a chunk holding a setting line. */
+        static final int SETTING = 1;
+        /** Kind of a chunk holding a line of message text. */
+        static final int MESSAGE = 2;
+        /** Kind of the chunk that marks the end of the input. */
+        static final int END = 3;
+
+        /** A chunk whose message lines are converted with PASSTHROUGH
+         *  (see MessageLine). */
+        Chunk(Passthrough passthrough) {
+            message = new MessageLine(passthrough);
+        }
+
+        /** Replace my text with LINE, cleaned up if I am a message
+         *  line. */
+        void set(String line) {
+            if (kind == MESSAGE) {
+                message.read(line);
+                this.line = null;
+            } else {
+                this.line = line;
+            }
+        }
+
+        /** Return the number of characters I hold. */
+        int length() {
+            return line == null ? message.length() : line.length();
+        }
+
+        /** One of GAP, SETTING, MESSAGE, or END. */
+        int kind;
+        /** My line, unless I am a message line. */
+        String line;
+        /** My text if I am a message line. */
+        final MessageLine message;
+    }
+
+    /** Work and waiting statistics for one stage.  Each Counter is updated
+     *  only by its own stage's thread and read after the stages finish. */
+    private static final class Counter {
+        /** A counter for the stage called NAME. */
+        Counter(String name) {
+            _name = name;
+        }
+
+        /** Record one chunk of N characters. */
+        void count(int n) {
+            _chunks += 1;
+            _chars += n;
+        }
+
+        /** Record NANOS nanoseconds of work. */
+        void busy(long nanos) {
+            _busyNanos += nanos;
+        }
+
+        /** Record NANOS nanoseconds of waiting on a neighboring stage. */
+        void waited(long nanos) {
+            _waitNanos += nanos;
+        }
+
+        @Override
+        public String toString() {
+            double busySeconds = _busyNanos / 1e9;
+            return String.format("%-8s %10d chunks %12d chars "
+                                 + "%14.0f chars/s busy %8.1f ms waiting",
+                                 _name, _chunks, _chars,
+                                 busySeconds > 0 ? _chars / busySeconds : 0.0,
+                                 _waitNanos / 1e6);
+        }
+
+        /** Stage name. */
+        private final String _name;
+        /** Chunks handled. */
+        private long _chunks;
+        /** Characters handled. */
+        private long _chars;
+        /** Time spent working. */
+        private long _busyNanos;
+        /** Time spent waiting on neighboring stages. */
+        private long _waitNanos;
+    }
+
+    /** Line terminator used by PrintStream.println. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Interprets setting lines. */
+    private final Main _main;
+
+    /** The machine being run. */
+    private final Machine _machine;
+
+    /** Source of input lines. */
+    private final BufferedReader _input;
+
+    /** Destination of formatted output. */
+    private final Writer _output;
+
+    /** Chunks not in use, returned by the writer to the reader. */
+    private final RingBuffer<Chunk> _free;
+
+    /** Chunks passed from the reader to the encryption stage. */
+    private final RingBuffer<Chunk> _toEncrypt;
+
+    /** Chunks passed from the encryption stage to the writer. */
+    private final RingBuffer<Chunk> _toWrite;
+
+    /** Blank lines read but not yet passed on, since whether they are
+     *  gaps or message lines depends on the next non-blank line. */
+    private final ArrayList<String> _blanks = new ArrayList<>();
+
+    /** Timer for the message being encrypted, or null.  Used only by
+     *  the encryption stage. */
+    private Profiler.MessageEvent _message;
+
+    /** Characters converted so far in the message being encrypted. */
+    private long _messageChars;
+
+    /** True once the reader has seen the first setting line. */
+    private boolean _started;
+
+    /** The reader, encryption and writer threads, in that order. */
+    private Thread[] _stages;
+
+    /** First failure in any stage, or null. */
+    private final AtomicReference<Throwable> _failure =
+        new AtomicReference<>();
+
+    /** Statistics for the reader stage. */
+    private final Counter _readCounter = new Counter("read");
+
+    /** Statistics for the encryption stage. */
+    private final Counter _encryptCounter = new Counter("encrypt");
+
+    /** Statistics for the writer stage. */
+    private final Counter _writeCounter = new Counter("write");
+}
@@ -0,0 +1,276 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Chooses how Main runs a single input: sequentially on one thread,
+ *  pipelined (reading, encryption and output on separate threads; see
+ *  Pipeline) or with whole messages encrypted in parallel (see
+ *  ParallelMessages).  Threads only pay for themselves when there is
+ *  enough work, and parallel messages only when there are enough
+ *  messages, so the planner looks at the start of the input (without
+ *  consuming it) to count setting lines and measure message lengths,
+ *  estimates the whole input from that and its size, and times a short
+ *  run of the configured machine, once warmed up, to turn characters
+ *  into seconds.  Inputs that fit in the sample always run sequentially.
+ *  Alphabets outside the BMP are never pipelined: they are converted a
+ *  line at a time through Strings rather than in place, so conversion
+ *  dominates and splitting off reading and writing gains little.
+ *  @author Jacqueline Angelina
+ */
+class Planner {
+
+    /** Plan number for running on one thread. */
+    static final int SEQUENTIAL = 0;
+    /** Plan number for running as a Pipeline. */
+    static final int PIPELINED = 1;
+    /** Plan number for running messages in parallel. */
+    static final int PARALLEL = 2;
+
+    /** Names of the plans, indexed by plan number. */
+    private static final String[] PLAN_NAMES = {
+        "sequential", "pipelined", "parallel"
+    };
+
+    /** A planner that uses MAIN to set up MACHINE for calibration, for
+     *  the input read by INPUT, which comes from a file of at least SIZE
+     *  bytes (or -1 if unknown), with THREADS threads available. */
+    Planner(Main main, Machine machine, BufferedReader input, long size,
+            int threads) {
+        _main = main;
+        _machine = machine;
+        _input = input;
+        _size = size;
+        _threads = threads;
+    }
+
+    /** Return the plan number named NAME. */
+    static int parse(String name) {
+        for (int i = 0; i < PLAN_NAMES.length; i += 1) {
+            if (PLAN_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw error("unknown plan %s", name);
+    }
+
+    /** Return the name of plan number PLAN. */
+    static String name(int plan) {
+        return PLAN_NAMES[plan];
+    }
+
+    /** Return the number of the best plan for the input, leaving the
+     *  input unread. */
+    int plan() {
+        if (_threads <= 1) {
+            return choose(SEQUENTIAL, "only one thread available");
+        }
+        String setting;
+        try {
+            setting = sample();
+        } catch (IOException excp) {
+            return choose(SEQUENTIAL, "could not sample the input");
+        }
+        if (setting == null) {
+            return choose(SEQUENTIAL, "no setting line in the first %d "
+                          + "chars", _sampled);
+        }
+        if (_complete) {
+            return choose(SEQUENTIAL, "the whole input is %d chars",
+                          _sampled);
+        }
+        double rate;
+        try {
+            rate = calibrate(setting);
+        } catch (EnigmaException excp) {
+            return choose(SEQUENTIAL, "first setting line is invalid");
+        }
+        long total = Math.max(_size, _sampled);
+        double seconds = total / rate;
+        double messages = _settings <= 1 ? _settings
+            : (double) _settings * total / _sampled;
+        String estimate =
+            String.format("about %d chars in %.0f messages of %d chars, "
+                          + "%.1f ms at %.0f chars/s", total, messages,
+                          _messageChars / _settings, seconds * 1e3, rate);
+        if (seconds < MIN_THREADED_SECONDS) {
+            return choose(SEQUENTIAL, "%s: too little to pay for threads",
+                          estimate);
+        }
+        if (messages >= PARALLEL_MESSAGES_PER_THREAD * _threads) {
+            return choose(PARALLEL, "%s: enough messages for %d threads",
+                          estimate, _threads);
+        }
+        if (!_machine.alphabet().isBmp()) {
+            return choose(SEQUENTIAL, "%s: too few messages to run in "
+                          + "parallel, and the alphabet is not all in the "
+                          + "BMP", estimate);
+        }
+        return choose(PIPELINED, "%s: too few messages to run in "
+                      + "parallel", estimate);
+    }
+
+    /** Return why the last plan was chosen. */
+    String reason() {
+        return _reason;
+    }
+
+    /** Record the reason for choosing plan PLAN, formatted from FORMAT
+     *  and ARGS, and return PLAN. */
+    private int choose(int plan, String format, Object... args) {
+        _reason = PLAN_NAMES[plan] + ": " + String.format(format, args);
+        return plan;
+    }
+
+    /** Read up to SAMPLE_CHARS characters of the input and reset it,
+     *  counting the setting lines and message characters in them.
+     *  Returns the first setting line, or null if there is none. */
+    private String sample() throws IOException {
+        char[] buffer = new char[SAMPLE_CHARS];
+        _input.mark(SAMPLE_CHARS);
+        int n = 0;
+        try {
+            while (n < buffer.length) {
+                int k = _input.read(buffer, n, buffer.length - n);
+                if (k < 0) {
+                    _complete = true;
+                    break;
+                }
+                n += k;
+            }
+        } finally {
+            _input.reset();
+        }
+        _sampled = Math.max(n, 1);
+        String first = null;
+        int end;
+        for (int start = 0; start < n; start = end + 1) {
+            end = start;
+            while (end < n && buffer[end] != '\n') {
+                end += 1;
+            }
+            if (end == n && !_complete) {
+                break;
+            }
+            String line = new String(buffer, start, end - start);
+            if (Pipeline.isSetting(line)) {
+                _settings += 1;
+                if (first == null) {
+                    first = line;
+                }
+            } else if (!Pipeline.isBlank(line)) {
+                _messageChars += line.length();
+            }
+        }
+        return first;
+    }
+
+    /** Return the throughput, in characters per second, of a copy of the
+     *  machine set up with SETTING.  The conversion loop is first run
+     *  untimed for a while, so that the JIT has compiled it, and then
+     *  timed in several rounds, of which the median counts.  Only
+     *  conversion is timed; reading, setting up and printing add to the
+     *  real cost, so the estimate errs towards running sequentially. */
+    private double calibrate(String setting) {
+        Machine probe = _machine.copy();
+        probe.setRecorder(null);
+        _main.setUp(probe, setting);
+        Alphabet alphabet = probe.alphabet();
+        StringBuilder block = new StringBuilder();
+        for (int i = 0; i < CALIBRATION_BLOCK; i += 1) {
+            block.appendCodePoint(alphabet.toCodePoint(i % alphabet.size()));
+        }
+        String line = block.toString();
+        char[] text = line.toCharArray();
+        long warm = System.nanoTime() + CALIBRATION_WARMUP_NANOS;
+        while (System.nanoTime() < warm) {
+            convert(probe, text, line);
+        }
+        double[] rates = new double[CALIBRATION_ROUNDS];
+        for (int i = 0; i < rates.length; i += 1) {
+            long chars = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                convert(probe, text, line);
+                chars += text.length;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < CALIBRATION_NANOS);
+            rates[i] = chars * 1e9 / elapsed;
+        }
+        Arrays.sort(rates);
+        return rates[rates.length / 2];
+    }
+
+    /** Convert TEXT in place with PROBE as the sequential path does, or
+     *  for alphabets outside the BMP, convert LINE (which holds the same
+     *  characters) to a new String, as that path does instead. */
+    private void convert(Machine probe, char[] text, String line) {
+        if (probe.alphabet().isBmp()) {
+            probe.convert(text, 0, text.length);
+        } else {
+            _sink += probe.convert(line).length();
+        }
+    }
+
+    /** Number of characters of input examined. */
+    private static final int SAMPLE_CHARS = 1 << 16;
+
+    /** Number of characters converted at a time while calibrating (one
+     *  line, for alphabets outside the BMP). */
+    private static final int CALIBRATION_BLOCK = 1 << 12;
+
+    /** Length of one timed calibration round. */
+    private static final long CALIBRATION_NANOS = 2_000_000;
+
+    /** Number of timed calibration rounds. */
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    /** Time for which the machine runs before calibration rounds. */
+    private static final long CALIBRATION_WARMUP_NANOS = 30_000_000;
+
+    /** Least estimated encryption time, in seconds, for which starting
+     *  threads is worthwhile. */
+    private static final double MIN_THREADED_SECONDS = 0.05;
+
+    /** Least number of messages per thread for running messages in
+     *  parallel. */
+    private static final int PARALLEL_MESSAGES_PER_THREAD = 2;
+
+    /** Interprets the sampled setting line. */
+    private final Main _main;
+
+    /** The configured machine. */
+    private final Machine _machine;
+
+    /** The input, which must support mark. */
+    private final BufferedReader _input;
+
+    /** Size of the input file, or -1. */
+    private final long _size;
+
+    /** Number of threads available. */
+    private final int _threads;
+
+    /** Number of characters sampled (at least 1). */
+    private int _sampled;
+
+    /** True iff the sample is the whole input. */
+    private boolean _complete;
+
+    /** Number of setting lines in the sample. */
+    private int _settings;
+
+    /** Number of message characters in the sample. */
+    private long _messageChars;
+
+    /** Why the last plan was chosen. */
+    private String _reason;
+
+    /** Result of the calibration run, kept so that it is not optimized
+     *  away. */
+    private int _sink;
+}
@@ -0,0 +1,169 @@
+package enigma;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Timing instrumentation for Main.  Each timed phase (configuration
+ *  parsing, machine setup, encryption and output) updates throughput
+ *  counters and a latency histogram, and is also committed as a JFR
+ *  event, which the JVM records when a flight recording is running (for
+ *  example, with -XX:StartFlightRecording).  Main only creates a Profiler
+ *  when asked to, so when profiling is off the only cost is a null
+ *  check per phase.  All methods are thread-safe.
+ *  @author Jacqueline Angelina
+ */
+class Profiler {
+
+    /** Phase number for reading the configuration file. */
+    static final int CONFIG = 0;
+    /** Phase number for setting up the machine from a setting line. */
+    static final int SETUP = 1;
+    /** Phase number for converting a line of a message. */
+    static final int ENCRYPT = 2;
+    /** Phase number for printing a converted line. */
+    static final int OUTPUT = 3;
+
+    /** Names of the phases, indexed by phase number. */
+    private static final String[] PHASE_NAMES = {
+        "config", "setup", "encrypt", "output"
+    };
+
+    /** A new profiler; its clock starts now. */
+    Profiler() {
+        _start = System.nanoTime();
+        for (int i = 0; i < PHASE_NAMES.length; i += 1) {
+            _phases[i] = new Phase();
+        }
+    }
+
+    /** Start timing an occurrence of phase PHASE.  The result is passed
+     *  to end once the phase is over. */
+    PhaseEvent begin(int phase) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = PHASE_NAMES[phase];
+        event.index = phase;
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    /** Finish timing EVENT, during which CHARS characters were handled. */
+    void end(PhaseEvent event, long chars) {
+        long nanos = System.nanoTime() - event.startNanos;
+        event.chars = chars;
+        event.commit();
+        Phase phase = _phases[event.index];
+        phase.count.increment();
+        phase.nanos.add(nanos);
+        phase.chars.add(chars);
+        phase.latency.record(nanos);
+    }
+
+    /** Start timing a message that begins with setting line SETTING. */
+    MessageEvent beginMessage(String setting) {
+        MessageEvent event = new MessageEvent();
+        event.setting = setting;
+        event.begin();
+        return event;
+    }
+
+    /** Finish timing message EVENT, which had CHARS characters. */
+    void endMessage(MessageEvent event, long chars) {
+        event.chars = chars;
+        event.commit();
+        _messages.increment();
+    }
+
+    /** Return a report of the counters and latency percentiles so far. */
+    String report() {
+        double seconds = Math.max(System.nanoTime() - _start, 1) / 1e9;
+        StringBuilder result = new StringBuilder();
+        long chars = _phases[ENCRYPT].chars.sum();
+        result.append(String.format("profile: %.3f s, %d messages "
+                                    + "(%.1f/s), %d setups, %d chars "
+                                    + "(%.0f/s)%n",
+                                    seconds, _messages.sum(),
+                                    _messages.sum() / seconds,
+                                    _phases[SETUP].count.sum(), chars,
+                                    chars / seconds));
+        result.append(String.format("%-8s %10s %10s %12s %10s %10s %10s "
+                                    + "%10s%n", "phase", "count",
+                                    "total ms", "chars", "p50 us",
+                                    "p90 us", "p99 us", "max us"));
+        for (int i = 0; i < PHASE_NAMES.length; i += 1) {
+            Phase phase = _phases[i];
+            result.append(String.format("%-8s %10d %10.1f %12d %10.1f "
+                                        + "%10.1f %10.1f %10.1f%n",
+                                        PHASE_NAMES[i], phase.count.sum(),
+                                        phase.nanos.sum() / 1e6,
+                                        phase.chars.sum(),
+                                        phase.latency.percentile(0.5) / 1e3,
+                                        phase.latency.percentile(0.9) / 1e3,
+                                        phase.latency.percentile(0.99) / 1e3,
+                                        phase.latency.percentile(1.0) / 1e3));
+        }
+        return result.toString();
+    }
+
+    /** Counters for one phase. */
+    private static final class Phase {
+        /** Number of occurrences. */
+        final LongAdder count = new LongAdder();
+        /** Total duration. */
+        final LongAdder nanos = new LongAdder();
+        /** Total characters handled. */
+        final LongAdder chars = new LongAdder();
+        /** Distribution of durations. */
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /** JFR event for one occurrence of a phase. */
+    @Name("enigma.Phase")
+    @Label("Enigma Phase")
+    @Category("Enigma")
+    @Description("One configuration read, setup, line conversion or "
+                 + "line output")
+    static final class PhaseEvent extends Event {
+        /** Phase name. */
+        @Label("Phase")
+        String phase;
+
+        /** Characters handled. */
+        @Label("Characters")
+        long chars;
+
+        /** Phase number (not recorded). */
+        transient int index;
+
+        /** Value of System.nanoTime() at the start (not recorded). */
+        transient long startNanos;
+    }
+
+    /** JFR event for one message: a setting line and the lines after it. */
+    @Name("enigma.Message")
+    @Label("Enigma Message")
+    @Category("Enigma")
+    static final class MessageEvent extends Event {
+        /** The message's setting line. */
+        @Label("Setting")
+        String setting;
+
+        /** Characters converted. */
+        @Label("Characters")
+        long chars;
+    }
+
+    /** When I was created. */
+    private final long _start;
+
+    /** Counters for each phase, indexed by phase number. */
+    private final Phase[] _phases = new Phase[PHASE_NAMES.length];
+
+    /** Number of messages finished. */
+    private final LongAdder _messages = new LongAdder();
+}
@@ -0,0 +1,191 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** An InputStream that reads another stream ahead on a separate thread, so
+ *  that work done by that stream as it is read (such as decompression)
+ *  overlaps with the work of the reader.  Data passes between the threads
+ *  in a fixed set of blocks that circulate through two RingBuffers, so
+ *  memory use is bounded and no buffers are allocated while reading.
+ *  @author Jacqueline Angelina
+ */
+class ReadAheadInputStream extends InputStream {
+
+    /** A block of data read from the underlying stream. */
+    private static final class Block {
+        /** A block of SIZE bytes. */
+        Block(int size) {
+            data = new byte[size];
+        }
+
+        /** The data. */
+        final byte[] data;
+        /** Number of valid bytes in data, or -1 at end of stream. */
+        int length;
+    }
+
+    /** A stream that reads IN ahead on its own thread, using BLOCKS blocks
+     *  of BLOCKSIZE bytes. */
+    ReadAheadInputStream(InputStream in, int blockSize, int blocks) {
+        _in = in;
+        _free = new RingBuffer<>(blocks);
+        _full = new RingBuffer<>(blocks);
+        try {
+            for (int i = 0; i < blocks; i += 1) {
+                _free.put(new Block(blockSize));
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted");
+        }
+        _reader = new Thread(this::readAhead, "enigma-read-ahead");
+        _reader.setDaemon(true);
+        _reader.start();
+    }
+
+    /** Body of the read-ahead thread: fill free blocks from _in until end
+     *  of stream or an error, which is passed on with the last block. */
+    private void readAhead() {
+        try {
+            while (true) {
+                Block block = _free.take();
+                try {
+                    block.length = fill(block.data);
+                } catch (IOException excp) {
+                    _error = excp;
+                    block.length = -1;
+                }
+                _full.put(block);
+                if (block.length < 0) {
+                    return;
+                }
+            }
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Read from _in into DATA until it is full or the stream ends.
+     *  Returns the number of bytes read, or -1 if the stream had already
+     *  ended. */
+    private int fill(byte[] data) throws IOException {
+        int n = 0;
+        while (n < data.length) {
+            int k = _in.read(data, n, data.length - n);
+            if (k < 0) {
+                break;
+            }
+            n += k;
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        int result = _current.data[_position] & BYTE_MASK;
+        _position += 1;
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, _current.length - _position);
+        System.arraycopy(_current.data, _position, b, off, n);
+        _position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return _current == null || _current.length < 0 ? 0
+            : _current.length - _position;
+    }
+
+    /** Make sure _current has unread data, taking the next block if
+     *  necessary.  Returns false at end of stream; throws the error that
+     *  ended the read-ahead, if any. */
+    private boolean ensureData() throws IOException {
+        if (_closed) {
+            throw new IOException("stream closed");
+        }
+        while (_current == null || _position >= _current.length) {
+            if (_current != null) {
+                if (_current.length < 0) {
+                    if (_error != null) {
+                        throw _error;
+                    }
+                    return false;
+                }
+                recycle(_current);
+            }
+            try {
+                _current = _full.take();
+            } catch (InterruptedException excp) {
+                _current = null;
+                throw new IOException("interrupted");
+            }
+            _position = 0;
+        }
+        return true;
+    }
+
+    /** Return BLOCK to the read-ahead thread. */
+    private void recycle(Block block) throws IOException {
+        try {
+            _free.put(block);
+        } catch (InterruptedException excp) {
+            throw new IOException("interrupted");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!_closed) {
+            _closed = true;
+            _reader.interrupt();
+            try {
+                _reader.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            _in.close();
+        }
+    }
+
+    /** Mask extracting an unsigned byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** The stream read ahead. */
+    private final InputStream _in;
+
+    /** Blocks waiting to be filled. */
+    private final RingBuffer<Block> _free;
+
+    /** Filled blocks waiting to be read, in order. */
+    private final RingBuffer<Block> _full;
+
+    /** The read-ahead thread. */
+    private final Thread _reader;
+
+    /** The error that stopped the read-ahead thread, or null.  Written
+     *  before the final block is queued, so visible once it is taken. */
+    private volatile IOException _error;
+
+    /** The block being read, or null before the first. */
+    private Block _current;
+
+    /** Position of the next byte to read in _current. */
+    private int _position;
+
+    /** True once closed. */
+    private boolean _closed;
+}
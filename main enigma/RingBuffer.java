@@ -0,0 +1,100 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded first-in first-out queue for exactly one producer thread and
+ *  one consumer thread.  The queue uses no locks: the producer owns the
+ *  tail counter and the consumer owns the head counter, and each only
+ *  reads the other's.  A thread that must wait spins briefly, then
+ *  yields, then parks for short intervals.
+ *  @author Jacqueline Angelina
+ */
+class RingBuffer<T> {
+
+    /** A queue holding at most CAPACITY items, which is rounded up to a
+     *  power of two. */
+    RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        _slots = new Object[size];
+        _mask = size - 1;
+    }
+
+    /** Return the maximum number of items I can hold. */
+    int capacity() {
+        return _slots.length;
+    }
+
+    /** Add ITEM at the tail, waiting while I am full.  Called only by the
+     *  producer.  Throws InterruptedException if the producer is
+     *  interrupted while waiting. */
+    void put(T item) throws InterruptedException {
+        long tail = _tail.get();
+        int idle = 0;
+        while (tail - _head.get() >= _slots.length) {
+            idle = idle(idle);
+        }
+        _slots[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+    }
+
+    /** Remove and return the item at the head, waiting while I am empty.
+     *  Called only by the consumer.  Throws InterruptedException if the
+     *  consumer is interrupted while waiting. */
+    @SuppressWarnings("unchecked")
+    T take() throws InterruptedException {
+        long head = _head.get();
+        int idle = 0;
+        while (head >= _tail.get()) {
+            idle = idle(idle);
+        }
+        int slot = (int) head & _mask;
+        T item = (T) _slots[slot];
+        _slots[slot] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Wait a little before polling again, having already waited ROUNDS
+     *  times.  Returns the new round count. */
+    private static int idle(int rounds) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (rounds < SPIN_ROUNDS) {
+            Thread.onSpinWait();
+        } else if (rounds < YIELD_ROUNDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return rounds + 1;
+    }
+
+    /** Number of busy-wait rounds before yielding. */
+    private static final int SPIN_ROUNDS = 128;
+
+    /** Number of rounds (including spins) before parking. */
+    private static final int YIELD_ROUNDS = 256;
+
+    /** Length of each park once spinning and yielding have failed. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** Storage for queued items, indexed by counter & _mask. */
+    private final Object[] _slots;
+
+    /** _slots.length - 1. */
+    private final int _mask;
+
+    /** Number of items ever removed; written only by the consumer. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Number of items ever added; written only by the producer. */
+    private final AtomicLong _tail = new AtomicLong();
+}
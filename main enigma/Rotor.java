@@ -76,9 +76,22 @@ class Rotor {
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
+        return notchAt(_setting);
+    }
+
+    /** Returns true iff I would allow the rotor to my left to advance
+     *  when at setting POSN. */
+    boolean notchAt(int posn) {
         return false;
     }
 
+    /** Return a new rotor like me, sharing my permutation, in the 0
+     *  setting.  Rotors carry their setting, so each Machine that runs
+     *  concurrently with others needs its own copies. */
+    Rotor copy() {
+        return new Rotor(_name, _permutation);
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -0,0 +1,102 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The description of a rotor in a configuration, kept in its textual form
+ *  until some machine first selects the rotor.  Compiling the cycles into
+ *  a Permutation (and validating a reflector) is done at most once per
+ *  description, and the result is shared by every rotor made from it, so
+ *  a catalog of thousands of rotors costs little more than its text when
+ *  only a few are used.
+ *  @author Jacqueline Angelina
+ */
+class RotorSpec {
+
+    /** A description of a rotor named NAME over ALPHABET whose TYPE is as
+     *  in a configuration file ("M" followed by its notches, "N" or "R")
+     *  and whose permutation has the cycles CYCLES. */
+    RotorSpec(String name, String type, String cycles, Alphabet alphabet) {
+        if (type.isEmpty() || "MNR".indexOf(type.charAt(0)) < 0) {
+            throw error("bad rotor description");
+        }
+        _name = name;
+        _type = type;
+        _cycles = cycles;
+        _alphabet = alphabet;
+    }
+
+    /** A description of the already constructed rotor PROTOTYPE, from
+     *  which rotors are made by copying it. */
+    RotorSpec(Rotor prototype) {
+        _name = prototype.name();
+        _type = null;
+        _cycles = null;
+        _alphabet = prototype.alphabet();
+        _prototype = prototype;
+    }
+
+    /** Return the name of the rotor. */
+    String name() {
+        return _name;
+    }
+
+    /** Return a new rotor as described, in its 0 setting.  The first call
+     *  compiles the description; an invalid description is reported
+     *  then. */
+    Rotor compile() {
+        Rotor prototype;
+        synchronized (this) {
+            if (_prototype == null) {
+                _prototype = build();
+                return _prototype;
+            }
+            prototype = _prototype;
+        }
+        return prototype.copy();
+    }
+
+    /** Return true iff the rotor described has a ratchet. */
+    boolean rotates() {
+        return _type == null ? _prototype.rotates() : _type.charAt(0) == 'M';
+    }
+
+    /** Return true iff the rotor described is a reflector. */
+    boolean reflecting() {
+        return _type == null ? _prototype.reflecting()
+            : _type.charAt(0) == 'R';
+    }
+
+    /** Return true iff the description has been compiled. */
+    synchronized boolean compiled() {
+        return _prototype != null;
+    }
+
+    /** Return the rotor described by my text. */
+    private Rotor build() {
+        Permutation perm = new Permutation(_cycles, _alphabet).interned();
+        switch (_type.charAt(0)) {
+        case 'M':
+            return new MovingRotor(_name, perm, _type.substring(1));
+        case 'N':
+            return new FixedRotor(_name, perm);
+        default:
+            return new Reflector(_name, perm);
+        }
+    }
+
+    /** Name of the rotor. */
+    private final String _name;
+
+    /** Type field of the description, or null for a prototype. */
+    private final String _type;
+
+    /** Cycles of the permutation, or null for a prototype. */
+    private final String _cycles;
+
+    /** Alphabet of the rotor. */
+    private final Alphabet _alphabet;
+
+    /** The first rotor compiled from me, whose permutation later rotors
+     *  share, or null if not yet compiled. */
+    private Rotor _prototype;
+}
@@ -0,0 +1,659 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.zip.GZIPInputStream;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the streaming adapters.
+ *  @author Jacqueline Angelina
+ */
+public class StreamsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private static final String PLAIN =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+
+    /** Return a machine set up as in the Hiawatha example. */
+    private Machine newMachine() {
+        Machine machine = new Machine(UPPER, 5, 3, MachineTest._allRotors)
+            .copy();
+        machine.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                             UPPER));
+        return machine;
+    }
+
+    /** A configuration with five rotor slots over A-Z. */
+    private static final String CONFIG = "A-Z 5 3\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX)"
+        + " (SZ) (TV)\n"
+        + " BETA N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n";
+
+    /** Messages with blank lines before, between, within and after
+     *  them. */
+    private static final String MESSAGES = "\n"
+        + "* B BETA I II III AXLE (HQ) (EX) (IP)\n"
+        + "From his shoulder Hiawatha\n"
+        + "\n"
+        + "Took the camera of rosewood\n"
+        + "\n"
+        + "\n"
+        + "* B BETA III I II ZZZZ\n"
+        + "Made of sliding folding rosewood\n"
+        + "Neatly put it all together\n"
+        + "\n";
+
+    /** A configuration over an alphabet with two supplementary
+     *  characters, U+1F600 and U+1F601. */
+    private static final String CODE_POINT_CONFIG =
+        "ABCD\uD83D\uDE00\uD83D\uDE01 3 1\n"
+        + " R R (A\uD83D\uDE00) (B\uD83D\uDE01) (CD)\n"
+        + " F N (ABC)\n"
+        + " M MA (A\uD83D\uDE00B) (C\uD83D\uDE01D)\n";
+
+    /** Messages over the alphabet of CODE_POINT_CONFIG. */
+    private static final String CODE_POINT_MESSAGES = "* R F M AA\n"
+        + "A\uD83D\uDE00 BC D\uD83D\uDE01\uD83D\uDE01ABCD\n"
+        + "\n"
+        + "* R F M A\uD83D\uDE00\n"
+        + "abcd \uD83D\uDE00\n";
+
+    /** Return a Main configured by CONFIG (written to a temporary file)
+     *  and given the further arguments ARGS. */
+    private Main newMain(String... args) throws IOException {
+        File config = File.createTempFile("enigma", ".conf");
+        config.deleteOnExit();
+        Files.write(config.toPath(), CONFIG.getBytes());
+        String[] all = new String[args.length + 1];
+        all[0] = config.getPath();
+        System.arraycopy(args, 0, all, 1, args.length);
+        return new Main(all);
+    }
+
+    /** Milliseconds without new input after which a test Follower
+     *  stops. */
+    private static final long FOLLOW_IDLE_MILLIS = 50;
+
+    /** Run a Follower with the configuration in file CONFIG and options
+     *  OPTIONS over INPUT, appending to OUTPUT and keeping its state in
+     *  STATE, until it has briefly seen no new input. */
+    private void follow(File config, File input, File output, File state,
+                        String... options) {
+        String[] args = new String[options.length + 1];
+        args[0] = config.getPath();
+        System.arraycopy(options, 0, args, 1, options.length);
+        Main main = new Main(args);
+        new Follower(main, main.readConfig(), config, input, output, state,
+                     FOLLOW_IDLE_MILLIS).run();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testReaderInPieces() throws IOException {
+        String expected = newMachine().convert(PLAIN);
+        Reader reader = new EnigmaReader(new StringReader(PLAIN),
+                                         newMachine());
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[7];
+        result.append((char) reader.read());
+        assertEquals("wrong skip count", 3, reader.skip(3));
+        for (int n = reader.read(buf, 0, buf.length); n > 0;
+             n = reader.read(buf, 0, buf.length)) {
+            result.append(buf, 0, n);
+        }
+        assertEquals("wrong reader conversion",
+                     expected.charAt(0) + expected.substring(4),
+                     result.toString());
+    }
+
+    @Test
+    public void testWriterInPieces() throws IOException {
+        String expected = newMachine().convert(PLAIN);
+        StringWriter out = new StringWriter();
+        EnigmaWriter writer = new EnigmaWriter(out, newMachine());
+        writer.write(PLAIN.charAt(0));
+        writer.write(PLAIN, 1, 10);
+        char[] rest = PLAIN.substring(11).toCharArray();
+        writer.write(rest, 0, rest.length);
+        writer.flush();
+        assertEquals("wrong writer conversion", expected, out.toString());
+        assertEquals("caller's array modified",
+                     PLAIN.substring(11), new String(rest));
+    }
+
+    @Test
+    public void testProcessor() throws Exception {
+        String expected = newMachine().convert(PLAIN);
+        EnigmaProcessor processor = new EnigmaProcessor(newMachine());
+        StringBuilder result = new StringBuilder();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        processor.subscribe(new Flow.Subscriber<CharBuffer>() {
+            private Flow.Subscription _subscription;
+
+            public void onSubscribe(Flow.Subscription subscription) {
+                _subscription = subscription;
+                subscription.request(1);
+            }
+
+            public void onNext(CharBuffer item) {
+                result.append(item);
+                _subscription.request(1);
+            }
+
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        try (SubmissionPublisher<CharBuffer> publisher =
+                 new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < PLAIN.length(); i += 5) {
+                String piece = PLAIN.substring(i,
+                        Math.min(PLAIN.length(), i + 5));
+                publisher.submit(i % 2 == 0 ? CharBuffer.wrap(piece)
+                                 : CharBuffer.wrap(piece.toCharArray()));
+            }
+        }
+        done.get();
+        assertEquals("wrong processor conversion",
+                     expected, result.toString());
+    }
+
+    @Test
+    public void testProcessorCompletesAfterSubscribe() throws Exception {
+        EnigmaProcessor processor = new EnigmaProcessor(newMachine());
+        StringBuilder events = new StringBuilder();
+        processor.subscribe(new Flow.Subscriber<CharBuffer>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                Thread upstream = new Thread(processor::onComplete);
+                upstream.start();
+                try {
+                    upstream.join();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                }
+                events.append("subscribed ");
+            }
+
+            public void onNext(CharBuffer item) {
+                events.append("next ");
+            }
+
+            public void onError(Throwable throwable) {
+                events.append("error ");
+            }
+
+            public void onComplete() {
+                events.append("complete ");
+            }
+        });
+        assertEquals("terminal signal before onSubscribe returned",
+                     "subscribed complete ", events.toString());
+    }
+
+    @Test
+    public void testRingBufferWraparound() throws Exception {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertEquals("capacity not rounded up", 4, ring.capacity());
+        int next = 0;
+        for (int round = 0; round < 10; round += 1) {
+            int size = round % 2 == 0 ? 3 : ring.capacity();
+            for (int i = 0; i < size; i += 1) {
+                ring.put(next + i);
+            }
+            for (int i = 0; i < size; i += 1) {
+                assertEquals("out of order", next + i, (int) ring.take());
+            }
+            next += size;
+        }
+
+        final int count = 10000;
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i += 1) {
+                    ring.put(i);
+                }
+            } catch (InterruptedException excp) {
+                return;
+            }
+        });
+        producer.start();
+        for (int i = 0; i < count; i += 1) {
+            assertEquals("out of order across threads", i, (int) ring.take());
+        }
+        producer.join();
+    }
+
+    @Test
+    public void testPipelineMatchesProcess() throws IOException {
+        Main main = newMain();
+        Machine machine = main.readConfig();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(expected);
+        main.process(machine.copy(), new Scanner(MESSAGES), out);
+        out.flush();
+        StringWriter result = new StringWriter();
+        new Pipeline(main, machine.copy(),
+                     new BufferedReader(new StringReader(MESSAGES)), result,
+                     2).run();
+        assertEquals("pipelined output differs", expected.toString(),
+                     result.toString());
+    }
+
+    @Test
+    public void testParallelMessagesMatchProcess() throws IOException {
+        String text = MESSAGES.repeat(1000);
+        String failing = text + "* B BETA I I III AAAA\nLost\n" + MESSAGES;
+        for (String input : new String[] {text, failing}) {
+            Main main = newMain();
+            Machine machine = main.readConfig();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(expected);
+            String expectedError = null;
+            try {
+                main.process(machine.copy(), new Scanner(input), out);
+            } catch (EnigmaException excp) {
+                expectedError = excp.getMessage();
+            }
+            out.flush();
+            assertEquals("error expected only in the failing input",
+                         input == failing, expectedError != null);
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            out = new PrintStream(result);
+            String error = null;
+            try {
+                new ParallelMessages(main, machine, new BufferedReader(
+                    new StringReader(input)), out, 3).run();
+            } catch (EnigmaException excp) {
+                error = excp.getMessage();
+            }
+            assertEquals("wrong error", expectedError, error);
+            assertEquals("parallel output differs", expected.toString(),
+                         result.toString());
+        }
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        String[] inputs = {
+            MESSAGES, MESSAGES + "* B BETA I I III AAAA\nLost\n",
+            MESSAGES.repeat(3)
+        };
+        File dir = Files.createTempDirectory("enigma").toFile();
+        File outDir = new File(dir, "out");
+        outDir.mkdir();
+        try {
+            Main main = newMain();
+            Machine machine = main.readConfig();
+            String[] expected = new String[inputs.length];
+            for (int i = 0; i < inputs.length; i += 1) {
+                Files.write(new File(dir, i + ".inp").toPath(),
+                            inputs[i].getBytes());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(bytes);
+                try {
+                    main.process(machine.copy(), new Scanner(inputs[i]), out);
+                } catch (EnigmaException excp) {
+                    assertEquals("wrong input failed", 1, i);
+                }
+                out.flush();
+                expected[i] = bytes.toString();
+            }
+            Batch batch = new Batch(main, machine, Batch.inputs(dir),
+                                    outDir, 2);
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            PrintStream stderr = System.err;
+            System.setErr(new PrintStream(errors, true));
+            int failed;
+            try {
+                failed = batch.run();
+            } finally {
+                System.setErr(stderr);
+            }
+            assertEquals("wrong number of failures", 1, failed);
+            assertTrue("failure not reported: " + errors,
+                       errors.toString().contains("1.inp"));
+            for (int i = 0; i < inputs.length; i += 1) {
+                assertEquals("wrong output for " + i, expected[i],
+                             new String(Files.readAllBytes(
+                                 new File(outDir, i + ".out").toPath())));
+            }
+        } finally {
+            for (File file : outDir.listFiles()) {
+                file.delete();
+            }
+            outDir.delete();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testShardsMatchProcess() throws IOException {
+        String text = MESSAGES.repeat(20);
+        String failing = text + "* B BETA I I III AAAA\nLost\n" + MESSAGES;
+        File config = File.createTempFile("enigma", ".conf");
+        try {
+            Files.write(config.toPath(), CONFIG.getBytes());
+            for (String input : new String[] {text, failing}) {
+                Main main = newMain();
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(expected);
+                String expectedError = null;
+                try {
+                    main.process(main.readConfig(), new Scanner(input), out);
+                } catch (EnigmaException excp) {
+                    expectedError = excp.getMessage();
+                }
+                out.flush();
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                out = new PrintStream(result);
+                String error = null;
+                try {
+                    new Coordinator(config, new BufferedReader(
+                        new StringReader(input)), input.length(), out, 2, 0,
+                        List.of()).run();
+                } catch (EnigmaException excp) {
+                    error = excp.getMessage();
+                }
+                assertEquals("wrong error", expectedError, error);
+                assertEquals("sharded output differs", expected.toString(),
+                             result.toString());
+            }
+        } finally {
+            config.delete();
+        }
+    }
+
+    @Test
+    public void testProfileInEveryPlan() throws IOException {
+        File input = File.createTempFile("enigma", ".inp");
+        File output = File.createTempFile("enigma", ".out");
+        try {
+            Files.write(input.toPath(), MESSAGES.getBytes());
+            String expected = null;
+            for (String plan : new String[] {
+                    "--plan=sequential", "--plan=pipelined",
+                    "--plan=parallel" }) {
+                Main main = newMain(input.getPath(), output.getPath(),
+                                    "--profile", plan, "--threads=2");
+                ByteArrayOutputStream errors = new ByteArrayOutputStream();
+                PrintStream stderr = System.err;
+                System.setErr(new PrintStream(errors, true));
+                try {
+                    main.process();
+                } finally {
+                    System.setErr(stderr);
+                    main.close();
+                }
+                String report = errors.toString();
+                String counts = report.substring(report.indexOf(" s, ") + 4,
+                                                 report.indexOf(" chars"));
+                if (expected == null) {
+                    expected = counts.replaceAll(" \\(.*?\\)", "");
+                    assertTrue("nothing profiled: " + report,
+                               expected.startsWith("2 messages"));
+                }
+                assertEquals("wrong profile with " + plan, expected,
+                             counts.replaceAll(" \\(.*?\\)", ""));
+            }
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testPlanner() throws IOException {
+        Main main = newMain();
+        Machine machine = main.readConfig();
+        String oneMessage = "* B BETA I II III AXLE\n"
+            + (PLAIN + "\n").repeat(4000);
+        String manyMessages = MESSAGES.repeat(1000);
+        long large = 1L << 32;
+
+        Planner planner = new Planner(main, machine, new BufferedReader(
+            new StringReader(MESSAGES)), MESSAGES.length(), 4);
+        assertEquals("small input: " + planner.reason(), Planner.SEQUENTIAL,
+                     planner.plan());
+        planner = new Planner(main, machine, new BufferedReader(
+            new StringReader(manyMessages)), large, 4);
+        assertEquals("many messages: " + planner.reason(), Planner.PARALLEL,
+                     planner.plan());
+        planner = new Planner(main, machine, new BufferedReader(
+            new StringReader(oneMessage)), large, 4);
+        assertEquals("one message: " + planner.reason(), Planner.PIPELINED,
+                     planner.plan());
+
+        String codePoints = "* R F M AA\n"
+            + "A\uD83D\uDE00BC\uD83D\uDE01D\n".repeat(20000);
+        planner = new Planner(main, Main.readConfig(
+            new Scanner(CODE_POINT_CONFIG), null), new BufferedReader(
+                new StringReader(codePoints)), large, 4);
+        assertEquals("one message outside the BMP: " + planner.reason(),
+                     Planner.SEQUENTIAL, planner.plan());
+
+        BufferedReader input =
+            new BufferedReader(new StringReader(manyMessages));
+        new Planner(main, machine, input, large, 4).plan();
+        assertEquals("planner consumed input", "", input.readLine());
+        assertEquals("planner consumed input", MESSAGES.split("\n")[1],
+                     input.readLine());
+    }
+
+    @Test
+    public void testFollowInStages() throws IOException {
+        String text = MESSAGES + "* B BETA II III I ABCD\nHiawatha\n";
+        int[] cuts = {
+            1, 10, text.indexOf("Took"), text.indexOf("* B BETA III"),
+            text.indexOf("sliding"), text.indexOf("* B BETA II III"),
+            text.length()
+        };
+        Main main = newMain();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(expected);
+        main.process(main.readConfig(), new Scanner(text), out);
+        out.flush();
+
+        File config = File.createTempFile("enigma", ".conf");
+        File input = File.createTempFile("enigma", ".inp");
+        File output = File.createTempFile("enigma", ".out");
+        File state = File.createTempFile("enigma", ".state");
+        try {
+            Files.write(config.toPath(), CONFIG.getBytes());
+            state.delete();
+            int done = 0;
+            for (int cut : cuts) {
+                Files.write(input.toPath(),
+                            text.substring(done, cut).getBytes(),
+                            StandardOpenOption.APPEND);
+                done = cut;
+                follow(config, input, output, state);
+                Files.write(output.toPath(), "lost".getBytes(),
+                            StandardOpenOption.APPEND);
+            }
+            follow(config, input, output, state);
+            assertEquals("followed output differs", expected.toString(),
+                         new String(Files.readAllBytes(output.toPath())));
+
+            Files.write(input.toPath(), text.substring(0, 5).getBytes());
+            try {
+                follow(config, input, output, state);
+                fail("truncated input not reported");
+            } catch (EnigmaException excp) {
+                assertTrue("wrong error: " + excp.getMessage(),
+                           excp.getMessage().contains("truncated"));
+            }
+        } finally {
+            config.delete();
+            input.delete();
+            output.delete();
+            state.delete();
+        }
+    }
+
+    @Test
+    public void testCodePointModes() throws IOException {
+        for (String option : new String[] {"--stats", "--passthrough"}) {
+            Main main = newMain(option);
+            Machine machine =
+                Main.readConfig(new Scanner(CODE_POINT_CONFIG), null);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(bytes, true, "UTF-8");
+            main.process(machine.copy(), new Scanner(CODE_POINT_MESSAGES),
+                         out);
+            String expected = bytes.toString("UTF-8");
+            assertTrue("supplementary characters not converted",
+                       expected.contains("\uD83D\uDE01"));
+            StringWriter result = new StringWriter();
+            new Pipeline(main, machine.copy(), new BufferedReader(
+                new StringReader(CODE_POINT_MESSAGES)), result, 2).run();
+            assertEquals("pipelined output differs with " + option,
+                         expected, result.toString());
+
+            if (!Charset.defaultCharset().newEncoder()
+                .canEncode(CODE_POINT_CONFIG)) {
+                continue;
+            }
+            File config = File.createTempFile("enigma", ".conf");
+            File input = File.createTempFile("enigma", ".inp");
+            File output = File.createTempFile("enigma", ".out");
+            File state = File.createTempFile("enigma", ".state");
+            try {
+                Files.write(config.toPath(), CODE_POINT_CONFIG.getBytes());
+                Files.write(input.toPath(), CODE_POINT_MESSAGES.getBytes());
+                state.delete();
+                follow(config, input, output, state, option);
+                assertEquals("followed output differs with " + option,
+                             expected, new String(
+                                 Files.readAllBytes(output.toPath())));
+            } finally {
+                config.delete();
+                input.delete();
+                output.delete();
+                state.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testRangeDecryption() throws IOException {
+        File input = File.createTempFile("enigma", ".inp");
+        File output = File.createTempFile("enigma", ".out");
+        File index = File.createTempFile("enigma", ".idx");
+        try {
+            Files.write(input.toPath(), MESSAGES.getBytes());
+            Main main = newMain(input.getPath(), output.getPath(),
+                                "--index=" + index.getPath(), "--every=10");
+            try {
+                main.process();
+            } finally {
+                main.close();
+            }
+            String encrypted = new String(Files.readAllBytes(output.toPath()));
+            StringBuilder plain = new StringBuilder();
+            for (String line : MESSAGES.split("\n")) {
+                if (!line.startsWith("*")) {
+                    plain.append(line.replace(" ", "").toUpperCase());
+                }
+            }
+            StringBuilder decrypted = new StringBuilder(encrypted);
+            for (int i = 0, k = 0; i < decrypted.length(); i += 1) {
+                if (Character.isLetter(decrypted.charAt(i))) {
+                    decrypted.setCharAt(i, plain.charAt(k));
+                    k += 1;
+                }
+            }
+
+            Main decrypter = newMain();
+            Machine machine = decrypter.readConfig();
+            List<Checkpoints.Checkpoint> checkpoints =
+                Checkpoints.load(index);
+            assertTrue("too few checkpoints", checkpoints.size() > 4);
+            int length = encrypted.length();
+            for (int start = 0; start < length; start += 7) {
+                int end = Math.min(length, start + 19);
+                ByteArrayOutputStream range = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(range);
+                Checkpoints.decrypt(decrypter, machine, checkpoints, output,
+                                    start, end, out);
+                assertEquals("wrong decryption of " + start + ":" + end,
+                             decrypted.substring(start, end),
+                             range.toString());
+            }
+        } finally {
+            input.delete();
+            output.delete();
+            index.delete();
+        }
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws IOException {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) PLAIN.charAt(i * i % PLAIN.length());
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream out =
+                 new ParallelGzipOutputStream(compressed, 1000, 3)) {
+            out.write(data, 0, 2500);
+            out.flush();
+            out.write(data[2500]);
+            out.write(data, 2501, data.length - 2501);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new ReadAheadInputStream(
+                 new GZIPInputStream(new ByteArrayInputStream(
+                     compressed.toByteArray())), 300, 2)) {
+            result.write(in.read());
+            byte[] buf = new byte[777];
+            for (int n = in.read(buf, 0, buf.length); n > 0;
+                 n = in.read(buf, 0, buf.length)) {
+                result.write(buf, 0, n);
+            }
+        }
+        assertArrayEquals("wrong gzip round trip", data,
+                          result.toByteArray());
+    }
+}
@@ -0,0 +1,242 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Checks a whole input before any of it is processed, so that every
+ *  error can be reported (with its line number) instead of only the
+ *  first, and before any output is written.  The checks are those Main,
+ *  Machine and Permutation make while processing, with much the same
+ *  messages, but made without building machines or throwing exceptions:
+ *  setting
+ *  lines are split by hand and checked against the rotor catalog, and
+ *  each character of a message line is looked up in a table, built once,
+ *  of the chars that are in the alphabet once upper-cased.  The one
+ *  difference is that an unknown rotor name is always an error, while a
+ *  run quietly keeps the rotor already in that slot.
+ *  @author Jacqueline Angelina
+ */
+class Validator {
+
+    /** A validator of input for machines like MACHINE. */
+    Validator(Machine machine) {
+        this(machine, false);
+    }
+
+    /** A validator of input for machines like MACHINE, which accepts any
+     *  character in a message line if PASSTHROUGH (see Passthrough). */
+    Validator(Machine machine, boolean passthrough) {
+        _passthrough = passthrough;
+        _alphabet = machine.alphabet();
+        _numRotors = machine.numRotors();
+        _numPawls = machine.numPawls();
+        for (RotorSpec spec : machine.catalog()) {
+            _rotors.put(spec.name().toUpperCase(), spec);
+        }
+        _allowed = new boolean[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c += 1) {
+            char ch = (char) c;
+            _allowed[c] = ch == ' '
+                || !Character.isSurrogate(ch)
+                   && _alphabet.contains(Character.toUpperCase(ch));
+        }
+    }
+
+    /** Check the lines read from INPUT, returning a description of each
+     *  error found (at most MAXERRORS of them) prefixed by its line
+     *  number. */
+    List<String> validate(BufferedReader input, int maxErrors) {
+        _errors = new ArrayList<>();
+        _maxErrors = maxErrors;
+        _count = 0;
+        boolean started = false;
+        int lineNumber = 0;
+        try {
+            for (String line = input.readLine(); line != null;
+                 line = input.readLine()) {
+                lineNumber += 1;
+                if (Pipeline.isBlank(line)) {
+                    continue;
+                }
+                if (!started || Pipeline.isSetting(line)) {
+                    report(lineNumber, checkSetting(line));
+                    started = true;
+                } else if (!_passthrough) {
+                    report(lineNumber, checkMessage(line));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+        return _errors;
+    }
+
+    /** Return the number of errors found by the last validate, including
+     *  any beyond those it returned. */
+    int count() {
+        return _count;
+    }
+
+    /** Record ERROR, if not null, as found on line LINENUMBER. */
+    private void report(int lineNumber, String error) {
+        if (error != null) {
+            _count += 1;
+            if (_errors.size() < _maxErrors) {
+                _errors.add(String.format("line %d: %s", lineNumber, error));
+            }
+        }
+    }
+
+    /** Return the first error in the setting line LINE, as Main.setUp
+     *  would report it, or null if there is none. */
+    private String checkSetting(String line) {
+        if (line.charAt(0) != '*') {
+            return "Wrong setting format";
+        }
+        List<String> fields = fields(line);
+        if (fields.size() - 1 < _numRotors) {
+            return "Setting doesn't have enough arguments.";
+        }
+        for (int i = 1; i <= _numRotors; i += 1) {
+            for (int j = i + 1; j <= _numRotors; j += 1) {
+                if (fields.get(i).equals(fields.get(j))) {
+                    return "Repeating rotors.";
+                }
+            }
+        }
+        RotorSpec[] specs = new RotorSpec[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            specs[i] = _rotors.get(fields.get(i + 1));
+            if (specs[i] == null) {
+                return String.format("Rotor %s doesn't exist.",
+                                     fields.get(i + 1));
+            }
+        }
+        if (!specs[0].reflecting()) {
+            return "First rotor is not a reflector.";
+        }
+        for (int i = 0; i < _numRotors - _numPawls; i += 1) {
+            if (specs[i].rotates()) {
+                return "Too many moving rotors.";
+            }
+        }
+        if (fields.size() < _numRotors + 2) {
+            return "Incorrect setting length.";
+        }
+        String positions = fields.get(_numRotors + 1);
+        if (positions.codePointCount(0, positions.length())
+            != _numRotors - 1) {
+            return "Incorrect setting length.";
+        }
+        for (int i = 0; i < positions.length(); ) {
+            int cp = positions.codePointAt(i);
+            if (!_alphabet.containsCodePoint(cp)) {
+                return "Initial setting is not in alphabet";
+            }
+            i += Character.charCount(cp);
+        }
+        return checkPlugboard(fields);
+    }
+
+    /** Return the first error in the plugboard cycles in FIELDS (which
+     *  follow the rotor positions), as Permutation would report it, or
+     *  null if there is none. */
+    private String checkPlugboard(List<String> fields) {
+        _seen.clear();
+        for (int k = _numRotors + 2; k < fields.size(); k += 1) {
+            String field = fields.get(k);
+            for (int i = 0; i < field.length(); ) {
+                int cp = field.codePointAt(i);
+                i += Character.charCount(cp);
+                if (cp == '(' || cp == ')' || Character.isWhitespace(cp)) {
+                    continue;
+                }
+                if (!_alphabet.containsCodePoint(cp)) {
+                    return "character out of range";
+                }
+                if (!_seen.add(cp)) {
+                    return String.format("character '%s' appears in more "
+                                         + "than one cycle",
+                                         new String(Character.toChars(cp)));
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return the fields of LINE as String.split(" ") would. */
+    private static List<String> fields(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= line.length(); i += 1) {
+            if (i == line.length() || line.charAt(i) == ' ') {
+                result.add(line.substring(start, i));
+                start = i + 1;
+            }
+        }
+        while (!result.isEmpty() && result.get(result.size() - 1).isEmpty()) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    /** Return an error describing the first character of message line
+     *  LINE that is not in the alphabet, or null if there is none. */
+    private String checkMessage(String line) {
+        for (int i = 0; i < line.length(); i += 1) {
+            char ch = line.charAt(i);
+            if (_allowed[ch]) {
+                continue;
+            }
+            if (Character.isHighSurrogate(ch)) {
+                int cp = line.codePointAt(i);
+                if (Character.isSupplementaryCodePoint(cp)
+                    && _alphabet.containsCodePoint(
+                        Character.toUpperCase(cp))) {
+                    i += 1;
+                    continue;
+                }
+            }
+            return String.format("character '%c' (column %d) is not in the "
+                                 + "alphabet", line.codePointAt(i), i + 1);
+        }
+        return null;
+    }
+
+    /** True iff message lines may contain any character. */
+    private final boolean _passthrough;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _numPawls;
+
+    /** Available rotors, by upper-case name. */
+    private final HashMap<String, RotorSpec> _rotors = new HashMap<>();
+
+    /** _allowed[c] is true iff char c may appear in a message line: it is
+     *  a space or upper-cases to a character of the alphabet. */
+    private final boolean[] _allowed;
+
+    /** Plugboard characters seen in the current setting line. */
+    private final HashSet<Integer> _seen = new HashSet<>();
+
+    /** Errors found by the current validate. */
+    private List<String> _errors;
+
+    /** Greatest number of errors to describe. */
+    private int _maxErrors;
+
+    /** Number of errors found by the current validate. */
+    private int _count;
+}
@@ -0,0 +1,478 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Generates large, reproducible workloads for Main and measures Main's
+ *  end-to-end throughput on them.  Usage:
+ *
+ *    java enigma.Workload config ALPHABET OUT [--rotors=N] [--slots=S]
+ *         [--pawls=P] [--seed=X]
+ *  writes to OUT a configuration over the characters of ALPHABET (a
+ *  range such as A-Z, or a list of characters, which must not be three
+ *  long; since Main upper-cases messages, there may be no lower-case
+ *  letters) with N (default 12) random rotors of each kind, S slots and P
+ *  pawls (default 5 and 3).  The reflectors are involutions, so that
+ *  every machine decrypts its own output.
+ *
+ *    java enigma.Workload generate CONFIG OUT [--messages=N] [--min=L]
+ *         [--max=M] [--line=W] [--plugs=K] [--seed=X]
+ *  writes to OUT N (default 1000) messages, each preceded by a random
+ *  valid setting line using the rotors of CONFIG with up to K (default
+ *  10) plugboard pairs, whose lengths are uniform between L and M
+ *  (default 20 and 200) and whose lines are at most W (default 60)
+ *  characters, in groups of five.
+ *
+ *    java enigma.Workload bench CONFIG INPUT [--repeat=R] [MAIN OPTIONS]
+ *  runs Main with the given options over INPUT, then again over the
+ *  result to decrypt it, R times (default 1), checking that decryption
+ *  restores the input and reporting throughput, peak heap and garbage
+ *  collection for each run.  Exits with code 1 if a check fails.
+ *
+ *  The same seed always gives the same output.
+ *  @author Jacqueline Angelina
+ */
+class Workload {
+
+    /** Run the command in ARGS, as described above. */
+    public static void main(String... args) {
+        try {
+            Workload workload = new Workload(args);
+            if (!workload.run()) {
+                System.exit(1);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A workload command given by ARGS.  In bench mode, options not
+     *  recognized here are passed on to Main. */
+    Workload(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                _args.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (OPTIONS.contains(name)) {
+                _options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+            } else {
+                _mainOptions.add(arg);
+            }
+        }
+        if (_args.size() != 3) {
+            throw error("usage: Workload config|generate|bench ARG ARG "
+                        + "[options]");
+        }
+        if (!_args.get(0).equals("bench") && !_mainOptions.isEmpty()) {
+            throw error("unknown option %s", _mainOptions.get(0));
+        }
+        _random = new Random(longOption("seed", 1));
+    }
+
+    /** Perform my command.  Returns false iff a check failed. */
+    boolean run() {
+        switch (_args.get(0)) {
+        case "config":
+            writeConfig(_args.get(1), new File(_args.get(2)));
+            return true;
+        case "generate":
+            generate(new File(_args.get(1)), new File(_args.get(2)));
+            return true;
+        case "bench":
+            return bench(_args.get(1), new File(_args.get(2)));
+        default:
+            throw error("unknown command %s", _args.get(0));
+        }
+    }
+
+    /** Write a random configuration over the alphabet described by
+     *  ALPHABET to OUT. */
+    private void writeConfig(String alphabet, File out) {
+        if (alphabet.length() == 3 && alphabet.charAt(1) != '-') {
+            throw error("a three-character alphabet must be a range");
+        }
+        Alphabet alpha = alphabet.length() == 3
+            ? new CharacterRange(alphabet.charAt(0), alphabet.charAt(2))
+            : new Extra(alphabet);
+        for (int i = 0; i < alpha.size(); i += 1) {
+            char ch = alpha.toChar(i);
+            if (Character.isWhitespace(ch) || "()*".indexOf(ch) >= 0
+                || Character.toUpperCase(ch) != ch) {
+                throw error("alphabet may not contain '%c'", ch);
+            }
+        }
+        int rotors = intOption("rotors", DEFAULT_ROTORS);
+        int slots = intOption("slots", DEFAULT_SLOTS);
+        int pawls = intOption("pawls", DEFAULT_PAWLS);
+        if (slots < 2 || pawls < 0 || pawls >= slots
+            || rotors < Math.max(pawls, slots - pawls - 1)) {
+            throw error("too few rotors for %d slots and %d pawls", slots,
+                        pawls);
+        }
+        try (PrintWriter config = new PrintWriter(new BufferedWriter(
+                 new FileWriter(out)))) {
+            config.println(alphabet);
+            config.printf(" %d %d%n", slots, pawls);
+            for (int i = 0; i < rotors; i += 1) {
+                config.printf(" R%d R %s%n", i, reflector(alpha));
+            }
+            for (int i = 0; i < rotors; i += 1) {
+                config.printf(" F%d N %s%n", i, permutation(alpha));
+            }
+            for (int i = 0; i < rotors; i += 1) {
+                StringBuilder notches = new StringBuilder();
+                for (int k = 1 + _random.nextInt(2); k > 0; k -= 1) {
+                    notches.append(alpha.toChar(
+                        _random.nextInt(alpha.size())));
+                }
+                config.printf(" M%d M%s %s%n", i, notches,
+                              permutation(alpha));
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", out);
+        }
+    }
+
+    /** Return the cycles of a random permutation of ALPHABET. */
+    private String permutation(Alphabet alphabet) {
+        ArrayList<Integer> order = shuffled(alphabet.size());
+        int[] map = new int[alphabet.size()];
+        for (int i = 0; i < map.length; i += 1) {
+            map[i] = order.get(i);
+        }
+        return new Permutation(map, alphabet).toString();
+    }
+
+    /** Return the cycles of a random involution of ALPHABET with at most
+     *  one fixed point. */
+    private String reflector(Alphabet alphabet) {
+        ArrayList<Integer> order = shuffled(alphabet.size());
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < order.size(); i += 2) {
+            result.append('(').append(alphabet.toChar(order.get(i)))
+                .append(alphabet.toChar(order.get(i + 1))).append(") ");
+        }
+        return result.toString().trim();
+    }
+
+    /** Return 0 .. N-1 in random order. */
+    private ArrayList<Integer> shuffled(int n) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            result.add(i);
+        }
+        Collections.shuffle(result, _random);
+        return result;
+    }
+
+    /** Write random messages for the machine configured by CONFIG to
+     *  OUT. */
+    private void generate(File config, File out) {
+        Machine machine = new Main(new String[] { config.getPath() })
+            .readConfig();
+        Alphabet alphabet = machine.alphabet();
+        ArrayList<String> reflectors = new ArrayList<>();
+        ArrayList<String> fixed = new ArrayList<>();
+        ArrayList<String> moving = new ArrayList<>();
+        for (RotorSpec spec : machine.catalog()) {
+            String name = spec.name().toUpperCase();
+            if (spec.reflecting()) {
+                reflectors.add(name);
+            } else if (spec.rotates()) {
+                moving.add(name);
+            } else {
+                fixed.add(name);
+            }
+        }
+        int slots = machine.numRotors(), pawls = machine.numPawls();
+        if (reflectors.isEmpty() || moving.size() < pawls
+            || fixed.size() < slots - pawls - 1) {
+            throw error("%s has too few rotors of some kind", config);
+        }
+        int messages = intOption("messages", DEFAULT_MESSAGES);
+        int min = intOption("min", DEFAULT_MIN_LENGTH);
+        int max = intOption("max", DEFAULT_MAX_LENGTH);
+        int width = intOption("line", DEFAULT_LINE_WIDTH);
+        int plugs = Math.min(intOption("plugs", DEFAULT_PLUGS),
+                             alphabet.size() / 2);
+        if (min < 0 || max < min || width < 1) {
+            throw error("bad message length or line width");
+        }
+        try (PrintWriter input = new PrintWriter(new BufferedWriter(
+                 new FileWriter(out)))) {
+            for (int m = 0; m < messages; m += 1) {
+                StringBuilder setting = new StringBuilder("*");
+                setting.append(' ').append(pick(reflectors, 1).get(0));
+                for (String name : pick(fixed, slots - pawls - 1)) {
+                    setting.append(' ').append(name);
+                }
+                for (String name : pick(moving, pawls)) {
+                    setting.append(' ').append(name);
+                }
+                setting.append(' ');
+                for (int i = 1; i < slots; i += 1) {
+                    setting.append(alphabet.toChar(
+                        _random.nextInt(alphabet.size())));
+                }
+                ArrayList<Integer> order = shuffled(alphabet.size());
+                for (int i = 0, n = _random.nextInt(plugs + 1); i < n;
+                     i += 1) {
+                    setting.append(" (")
+                        .append(alphabet.toChar(order.get(2 * i)))
+                        .append(alphabet.toChar(order.get(2 * i + 1)))
+                        .append(')');
+                }
+                input.println(setting);
+                writeMessage(input, alphabet,
+                             min + _random.nextInt(max - min + 1), width);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", out);
+        }
+    }
+
+    /** Return N distinct members of NAMES, chosen at random. */
+    private List<String> pick(List<String> names, int n) {
+        ArrayList<String> result = new ArrayList<>(names);
+        Collections.shuffle(result, _random);
+        return result.subList(0, n);
+    }
+
+    /** Write a random message of LENGTH characters of ALPHABET to OUT in
+     *  lines of at most WIDTH characters (counting the spaces between
+     *  groups of five). */
+    private void writeMessage(PrintWriter out, Alphabet alphabet, int length,
+                              int width) {
+        StringBuilder line = new StringBuilder();
+        int group = 0;
+        for (int i = 0; i < length; i += 1) {
+            if (group == GROUP) {
+                if (line.length() + 1 + GROUP > width) {
+                    out.println(line);
+                    line.setLength(0);
+                } else {
+                    line.append(' ');
+                }
+                group = 0;
+            }
+            line.append(alphabet.toChar(_random.nextInt(alphabet.size())));
+            group += 1;
+        }
+        out.println(line);
+    }
+
+    /** Run Main over INPUT with configuration CONFIG and then decrypt the
+     *  result, reporting on each run.  Returns true iff every decryption
+     *  matched INPUT. */
+    private boolean bench(String config, File input) {
+        int repeat = intOption("repeat", 1);
+        boolean ok = true;
+        try {
+            File encrypted = File.createTempFile("enigma", ".enc");
+            File decryptInput = File.createTempFile("enigma", ".dec.inp");
+            File decrypted = File.createTempFile("enigma", ".dec");
+            encrypted.deleteOnExit();
+            decryptInput.deleteOnExit();
+            decrypted.deleteOnExit();
+            for (int r = 1; r <= repeat; r += 1) {
+                timeMain("encrypt", r, config, input, encrypted);
+                interleave(input, encrypted, decryptInput);
+                timeMain("decrypt", r, config, decryptInput, decrypted);
+                String mismatch = compare(input, decrypted);
+                if (mismatch == null) {
+                    System.out.printf("run %d: round trip OK%n", r);
+                } else {
+                    System.out.printf("run %d: round trip FAILED: %s%n",
+                                      r, mismatch);
+                    ok = false;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        return ok;
+    }
+
+    /** Run Main in this JVM with configuration CONFIG from INPUT to OUTPUT,
+     *  and report its throughput and memory use as run RUN of PHASE. */
+    private void timeMain(String phase, int run, String config, File input,
+                          File output) {
+        ArrayList<String> args = new ArrayList<>(_mainOptions);
+        args.add(config);
+        args.add(input.getPath());
+        args.add(output.getPath());
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory
+            .getMemoryPoolMXBeans();
+        for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+        }
+        long collections = 0, collectionMillis = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections -= gc.getCollectionCount();
+            collectionMillis -= gc.getCollectionTime();
+        }
+        long start = System.nanoTime();
+        Main main = new Main(args.toArray(new String[0]));
+        try {
+            main.process();
+        } finally {
+            main.close();
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += gc.getCollectionCount();
+            collectionMillis += gc.getCollectionTime();
+        }
+        long bytes = input.length();
+        System.out.printf("run %d: %-7s %d bytes in %.3f s: %.1f MB/s, "
+                          + "peak heap %.1f MiB, %d GCs (%d ms)%n",
+                          run, phase, bytes, seconds, bytes / seconds / 1e6,
+                          peak / (double) (1 << 20), collections,
+                          collectionMillis);
+    }
+
+    /** Write to OUT the input for decrypting ENCRYPTED, Main's output for
+     *  INPUT: each setting line of INPUT in place, and each other line
+     *  replaced by the next line of ENCRYPTED. */
+    private void interleave(File input, File encrypted, File out)
+        throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(input));
+             BufferedReader enc = new BufferedReader(
+                 new FileReader(encrypted));
+             PrintWriter result = new PrintWriter(new BufferedWriter(
+                 new FileWriter(out)))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().startsWith("*")) {
+                    result.println(line);
+                } else {
+                    String next = enc.readLine();
+                    result.println(next == null ? "" : next);
+                }
+            }
+        }
+    }
+
+    /** Return a description of the first difference between the
+     *  messages of INPUT, ignoring spaces and case, and the lines of
+     *  DECRYPTED, or null if there is none. */
+    private String compare(File input, File decrypted) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(input));
+             BufferedReader dec = new BufferedReader(
+                 new FileReader(decrypted))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber += 1;
+                if (line.trim().startsWith("*")) {
+                    continue;
+                }
+                String expected = line.replace(" ", "").toUpperCase();
+                String actual = dec.readLine();
+                if (actual == null
+                    || !actual.replace(" ", "").equals(expected)) {
+                    return String.format("line %d of %s", lineNumber,
+                                         input);
+                }
+            }
+            if (dec.readLine() != null) {
+                return "extra output";
+            }
+        }
+        return null;
+    }
+
+    /** Return the value of integer option NAME, or DEFAULTVALUE if it was
+     *  not given. */
+    private int intOption(String name, int defaultValue) {
+        return (int) longOption(name, defaultValue);
+    }
+
+    /** Return the value of long option NAME, or DEFAULTVALUE if it was
+     *  not given. */
+    private long longOption(String name, long defaultValue) {
+        if (!_options.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(_options.get(name));
+        } catch (NumberFormatException excp) {
+            throw error("option --%s needs an integer value", name);
+        }
+    }
+
+    /** Names of the options recognized here. */
+    private static final List<String> OPTIONS =
+        List.of("rotors", "slots", "pawls", "seed", "messages", "min", "max",
+                "line", "plugs", "repeat");
+
+    /** Default number of rotors of each kind in a generated
+     *  configuration. */
+    private static final int DEFAULT_ROTORS = 12;
+
+    /** Default number of slots in a generated configuration. */
+    private static final int DEFAULT_SLOTS = 5;
+
+    /** Default number of pawls in a generated configuration. */
+    private static final int DEFAULT_PAWLS = 3;
+
+    /** Default number of generated messages. */
+    private static final int DEFAULT_MESSAGES = 1000;
+
+    /** Default least length of a generated message. */
+    private static final int DEFAULT_MIN_LENGTH = 20;
+
+    /** Default greatest length of a generated message. */
+    private static final int DEFAULT_MAX_LENGTH = 200;
+
+    /** Default greatest width of a generated message line. */
+    private static final int DEFAULT_LINE_WIDTH = 60;
+
+    /** Default greatest number of plugboard pairs. */
+    private static final int DEFAULT_PLUGS = 10;
+
+    /** Characters per group in generated messages. */
+    private static final int GROUP = 5;
+
+    /** Positional arguments. */
+    private final ArrayList<String> _args = new ArrayList<>();
+
+    /** Options recognized here, by name. */
+    private final HashMap<String, String> _options = new HashMap<>();
+
+    /** Options passed on to Main. */
+    private final ArrayList<String> _mainOptions = new ArrayList<>();
+
+    /** Source of all random choices. */
+    private final Random _random;
+}